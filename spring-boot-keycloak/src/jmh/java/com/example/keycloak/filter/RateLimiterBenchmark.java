@@ -0,0 +1,122 @@
+package com.example.keycloak.filter;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh hai engine rate limiting: BucketRateLimiter (Bucket4j + LocalBucketStore) và
+ * SlidingWindowRateLimiter, với cấu hình của policy ip-default (100 / phút, 1M slots)
+ *
+ * - acquire: tryAcquire / giây với 4 threads trên keyCount IP khác nhau (key ngẫu nhiên mỗi lần)
+ * - footprint: heap giữ lại sau khi tạo state cho keyCount keys, chia theo key (bytesPerKey);
+ *   không tính String key (request thật cũng giữ key trong bucket store, sliding window thì không);
+ *   JMH cộng dồn aux counter qua các iterations nên footprint chỉ đo một iteration (không dùng -i)
+ *
+ * Chạy: mvn -Pjmh test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RateLimiterBenchmark {
+
+    private static final int CAPACITY = 100;
+    private static final Duration PERIOD = Duration.ofMinutes(1);
+    private static final int SLOTS = 1 << 20;
+
+    @Param({"bucket4j", "sliding-window"})
+    public String engine;
+
+    @Param({"10000", "1000000"})
+    public int keyCount;
+
+    private String[] keys;
+    private RateLimiter limiter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "10." + ((i >>> 16) & 0xff) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+        }
+        limiter = newLimiter();
+        for (String key : keys) {
+            limiter.tryAcquire(key);
+        }
+    }
+
+    private RateLimiter newLimiter() {
+        if ("sliding-window".equals(engine)) {
+            return new SlidingWindowRateLimiter("benchmark", CAPACITY, PERIOD, SLOTS);
+        }
+        BucketConfiguration configuration = BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(CAPACITY).refillGreedy(CAPACITY, PERIOD).build())
+                .build();
+        return new BucketRateLimiter(new LocalBucketStore("benchmark", configuration, 2L * keyCount));
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * bytesPerKey được JMH báo cùng kết quả footprint
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerKey;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public long acquire(Cursor cursor) {
+        cursor.next = cursor.next * 1103515245 + 12345;
+        return limiter.tryAcquire(keys[(cursor.next >>> 1) % keys.length]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    public void footprint(Footprint footprint) {
+        long before = usedHeap();
+        RateLimiter created = newLimiter();
+        for (String key : keys) {
+            created.tryAcquire(key);
+        }
+        long after = usedHeap();
+        Reference.reachabilityFence(created);
+        footprint.bytesPerKey = (after - before) / keys.length;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
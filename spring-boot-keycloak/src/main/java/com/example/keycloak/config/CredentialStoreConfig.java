@@ -0,0 +1,55 @@
+package com.example.keycloak.config;
+
+import com.example.keycloak.service.federation.CachingCredentialStore;
+import com.example.keycloak.service.federation.CredentialStore;
+import com.example.keycloak.service.federation.DemoCredentialStore;
+import com.example.keycloak.service.federation.JdbcCredentialStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Credential Store Configuration (security.federation.api.credential-store trong application.yml)
+ *
+ * - type: demo (hashes tính sẵn cho admin / user) | jdbc (bảng users của custom user database)
+ * - Hash đã tra cứu được cache (cache-ttl; user không tồn tại: negative-ttl);
+ *   cache-ttl 0 = luôn tra store
+ * - Metrics: cache.* {cache=credentialStore}
+ */
+@Slf4j
+@Configuration
+public class CredentialStoreConfig {
+
+    @Bean
+    public CredentialStore credentialStore(
+            MeterRegistry meterRegistry,
+            DataSource dataSource,
+            @Value("${security.federation.api.credential-store.type:demo}") String type,
+            @Value("${security.federation.api.credential-store.cache-ttl:60s}") Duration cacheTtl,
+            @Value("${security.federation.api.credential-store.negative-ttl:10s}") Duration negativeTtl,
+            @Value("${security.federation.api.credential-store.max-size:10000}") long maxSize) {
+        CredentialStore store;
+        if ("jdbc".equalsIgnoreCase(type)) {
+            store = new JdbcCredentialStore(new JdbcTemplate(dataSource));
+        } else if ("demo".equalsIgnoreCase(type)) {
+            store = new DemoCredentialStore();
+        } else {
+            throw new IllegalStateException("Unknown credential store type: " + type);
+        }
+        log.info("API federation credential store: type={}, cacheTtl={}, negativeTtl={}", type, cacheTtl, negativeTtl);
+
+        if (cacheTtl.isZero() || cacheTtl.isNegative()) {
+            return store;
+        }
+        CachingCredentialStore caching = new CachingCredentialStore(store, cacheTtl, negativeTtl, maxSize);
+        CaffeineCacheMetrics.monitor(meterRegistry, caching.getCache(), "credentialStore");
+        return caching;
+    }
+}
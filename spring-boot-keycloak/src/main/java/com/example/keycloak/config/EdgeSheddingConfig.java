@@ -0,0 +1,30 @@
+package com.example.keycloak.config;
+
+import com.example.keycloak.filter.ClientIpResolver;
+import com.example.keycloak.filter.EdgeSheddingValve;
+import com.example.keycloak.filter.IpFilter;
+import com.example.keycloak.filter.RateLimitingFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Edge Load Shedding Configuration
+ * 
+ * - security.edge-shedding.enabled=true: đăng ký EdgeSheddingValve vào Tomcat context pipeline
+ * - IP verdict và rate limit theo IP được áp dụng trước servlet dispatch;
+ *   IpFilter / RateLimitingFilter vẫn xử lý các policy còn lại (theo user, authenticated)
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "security.edge-shedding", name = "enabled", havingValue = "true")
+public class EdgeSheddingConfig {
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> edgeSheddingValveCustomizer(
+            ClientIpResolver clientIpResolver, IpFilter ipFilter, RateLimitingFilter rateLimitingFilter) {
+        return factory -> factory.addContextValves(
+                new EdgeSheddingValve(clientIpResolver, ipFilter, rateLimitingFilter));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.keycloak.config;
+
+import com.example.keycloak.service.PasswordHashingService;
+import com.example.keycloak.service.VerifiedCredentialCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password Hashing Configuration (security.password-hashing trong application.yml)
+ *
+ * - PasswordHashingService: BCrypt chạy trên worker pool riêng (mặc định = số cores),
+ *   hàng đợi giới hạn, xoay vòng theo IP client, deadline max-wait
+ * - Metrics: auth.password.queue.wait / auth.password.compute (histograms),
+ *   auth.password.rejected{reason}, auth.password.queue
+ * - VerifiedCredentialCache (security.credential-cache, opt-in: ttl 0 = tắt):
+ *   login lặp lại với credential đúng trong TTL bỏ qua BCrypt
+ */
+@Configuration
+public class PasswordHashingConfig {
+
+    @Bean(destroyMethod = "close")
+    public PasswordHashingService passwordHashingService(
+            MeterRegistry meterRegistry,
+            @Value("${security.password-hashing.threads:0}") int threads,
+            @Value("${security.password-hashing.queue-size:64}") int queueSize,
+            @Value("${security.password-hashing.queue-per-client:4}") int queuePerClient,
+            @Value("${security.password-hashing.max-wait:1s}") Duration maxWait) {
+        PasswordHashingService service = new PasswordHashingService(threads, queueSize, queuePerClient, maxWait,
+                new MicrometerMetrics(meterRegistry));
+        Gauge.builder("auth.password.queue", service, PasswordHashingService::getQueueDepth)
+                .description("Password hashing requests waiting for a worker")
+                .register(meterRegistry);
+        return service;
+    }
+
+    @Bean
+    public VerifiedCredentialCache verifiedCredentialCache(
+            MeterRegistry meterRegistry,
+            @Value("${security.credential-cache.ttl:0s}") Duration ttl,
+            @Value("${security.credential-cache.max-size:10000}") long maxSize) {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(ttl, maxSize);
+        FunctionCounter.builder("auth.credential.cache.hits", cache, VerifiedCredentialCache::getHitCount)
+                .description("Logins answered from the verified-credential cache lookup")
+                .register(meterRegistry);
+        FunctionCounter.builder("auth.credential.cache.misses", cache, VerifiedCredentialCache::getMissCount)
+                .register(meterRegistry);
+        return cache;
+    }
+
+    private static final class MicrometerMetrics implements PasswordHashingService.Metrics {
+
+        private final MeterRegistry registry;
+        private final Timer queueWait;
+        private final Timer compute;
+        private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+
+        private MicrometerMetrics(MeterRegistry registry) {
+            this.registry = registry;
+            this.queueWait = Timer.builder("auth.password.queue.wait")
+                    .description("Time password hashing requests wait for a worker")
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.compute = Timer.builder("auth.password.compute")
+                    .description("CPU time of BCrypt hashing / verification")
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        @Override
+        public void completed(long queueWaitNanos, long computeNanos) {
+            queueWait.record(queueWaitNanos, TimeUnit.NANOSECONDS);
+            compute.record(computeNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void rejected(String reason) {
+            rejected.computeIfAbsent(reason, key -> Counter.builder("auth.password.rejected")
+                    .tag("reason", key)
+                    .register(registry)).increment();
+        }
+    }
+}
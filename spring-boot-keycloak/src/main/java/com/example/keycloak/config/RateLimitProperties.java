@@ -0,0 +1,130 @@
+package com.example.keycloak.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rate Limiting Policy Configuration (security.rate-limit trong application.yml)
+ *
+ * Mỗi policy gồm:
+ * - paths: path pattern ("/api/auth/login" hoặc "/api/auth/mfa/**")
+ * - methods: HTTP methods (rỗng = tất cả)
+ * - auth: any | anonymous | authenticated
+ * - key: ip | user - bucket riêng cho mỗi (policy, key)
+ * - limits: một hoặc nhiều bandwidth (ví dụ 5/phút và 20/giờ)
+ * - engine: bucket4j (chính xác, mặc định) | sliding-window (bộ nhớ cố định, một limit)
+ *
+ * Backend:
+ * - local: buckets trong bộ nhớ của mỗi instance
+ * - jcache: buckets dùng chung giữa các instance qua JCache (bucket4j-jcache)
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "security.rate-limit")
+public class RateLimitProperties {
+
+    private Backend backend = Backend.LOCAL;
+
+    private JCache jcache = new JCache();
+
+    /**
+     * Giới hạn cứng số buckets của mỗi policy (với jcache: số bucket proxies local)
+     */
+    private long maxBuckets = 500000;
+
+    /**
+     * Các policy, được kiểm tra theo thứ tự khai báo
+     */
+    private List<Policy> policies = new ArrayList<>();
+
+    public enum Backend {
+        LOCAL,
+        JCACHE
+    }
+
+    public enum OptimizationType {
+        NONE,
+        BATCHING,
+        DELAYING,
+        PREDICTING
+    }
+
+    public enum Engine {
+        BUCKET4J,
+        SLIDING_WINDOW
+    }
+
+    public enum AuthType {
+        ANY,
+        ANONYMOUS,
+        AUTHENTICATED
+    }
+
+    public enum KeyType {
+        IP,
+        USER
+    }
+
+    @Data
+    public static class Policy {
+        private String name;
+        private List<String> paths = new ArrayList<>();
+        private List<String> methods = new ArrayList<>();
+        private AuthType auth = AuthType.ANY;
+        private KeyType key = KeyType.IP;
+        private List<Limit> limits = new ArrayList<>();
+        private Engine engine = Engine.BUCKET4J;
+
+        /**
+         * Số slots của sliding-window engine (8 bytes/slot, làm tròn lên luỹ thừa của 2)
+         */
+        private int slots = 1 << 20;
+    }
+
+    @Data
+    public static class Limit {
+        private long capacity;
+        private Duration period = Duration.ofMinutes(1);
+
+        /**
+         * Số token refill mỗi period (mặc định = capacity)
+         */
+        private Long refillTokens;
+    }
+
+    @Data
+    public static class JCache {
+
+        /**
+         * Class name của CachingProvider (rỗng = provider duy nhất trên classpath)
+         */
+        private String provider;
+
+        /**
+         * URI config của provider (rỗng = default URI)
+         */
+        private String configUri;
+
+        /**
+         * Mỗi policy dùng cache riêng: cachePrefix + tên policy
+         */
+        private String cachePrefix = "rate-limit-";
+
+        private OptimizationType optimization = OptimizationType.DELAYING;
+
+        /**
+         * Số token tối đa mỗi instance consume trước khi phải đồng bộ với cluster
+         */
+        private long maxUnsynchronizedTokens = 10;
+
+        /**
+         * Thời gian tối đa giữa hai lần đồng bộ với cluster
+         */
+        private Duration maxUnsynchronizedTimeout = Duration.ofMillis(200);
+    }
+}
@@ -62,6 +62,8 @@ public class SecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
                 .antMatchers("/api/auth/login/**").permitAll()
                 .antMatchers("/api/auth/mfa/**").permitAll() // MFA endpoints
                 .antMatchers("/actuator/health").permitAll()
+                // Metrics lộ counters nội bộ (IP cache, rate limit, hashing queue): chỉ admin
+                .antMatchers("/actuator/metrics", "/actuator/metrics/**").hasRole("admin")
                 .antMatchers("/api/admin/**").hasRole("admin")
                 .anyRequest().authenticated()
                 .and()
@@ -0,0 +1,89 @@
+package com.example.keycloak.config;
+
+import com.example.keycloak.service.UserImportJob;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Bulk User Import Configuration
+ *
+ * - users.import.file được set: chạy UserImportJob khi khởi động, trong SmartLifecycle phase sớm
+ *   (IMPORT_PHASE) - trước khi web server mở connector (phase Integer.MAX_VALUE - 1), nên chưa nhận traffic
+ * - Database đích: users.import.jdbc-url nếu có (pool riêng, đóng sau khi import),
+ *   ngược lại datasource của ứng dụng
+ * - Import lỗi: dừng khởi động; chạy lại cùng job-id để tiếp tục từ checkpoint
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "users.import", name = "file")
+public class UserImportConfig {
+
+    /**
+     * Phase của import; nhỏ hơn phase của web server để chạy xong trước khi nhận requests
+     */
+    public static final int IMPORT_PHASE = 0;
+
+    @Bean
+    public SmartLifecycle userImportLifecycle(UserImportProperties properties, DataSource applicationDataSource) {
+        return new SmartLifecycle() {
+
+            private volatile boolean running;
+
+            @Override
+            public void start() {
+                try {
+                    importUsers(properties, applicationDataSource);
+                } catch (Exception e) {
+                    throw new IllegalStateException("User import from " + properties.getFile() + " failed", e);
+                }
+                running = true;
+            }
+
+            @Override
+            public void stop() {
+                running = false;
+            }
+
+            @Override
+            public boolean isRunning() {
+                return running;
+            }
+
+            @Override
+            public int getPhase() {
+                return IMPORT_PHASE;
+            }
+        };
+    }
+
+    private static void importUsers(UserImportProperties properties, DataSource applicationDataSource)
+            throws Exception {
+        if (properties.getJdbcUrl() == null || properties.getJdbcUrl().isBlank()) {
+            runImport(applicationDataSource, properties);
+            return;
+        }
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("user-import");
+        config.setJdbcUrl(properties.getJdbcUrl());
+        config.setUsername(properties.getUsername());
+        config.setPassword(properties.getPassword());
+        config.setMaximumPoolSize(1);
+        try (HikariDataSource dataSource = new HikariDataSource(config)) {
+            runImport(dataSource, properties);
+        }
+    }
+
+    private static void runImport(DataSource dataSource, UserImportProperties properties) throws Exception {
+        log.info("Starting user import from {}", properties.getFile());
+        UserImportJob.Result result = new UserImportJob(dataSource, properties).run();
+        log.info("User import finished: resumedFrom={}, imported={}, invalid={}",
+                result.resumedFrom(), result.imported(), result.invalid());
+    }
+}
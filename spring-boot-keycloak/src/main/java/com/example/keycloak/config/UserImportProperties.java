@@ -0,0 +1,55 @@
+package com.example.keycloak.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Bulk User Import Configuration (users.import trong application.yml / command line)
+ *
+ * Chạy import khi khởi động: java -jar app.jar --users.import.file=/data/branch-01.csv
+ * - file: CSV (có header) hoặc NDJSON; cột / field: id, username, email, password,
+ *   first_name, last_name, enabled
+ * - job-id: khoá checkpoint (mặc định = tên file); chạy lại cùng job-id thì tiếp tục
+ *   từ record đã commit cuối cùng
+ * - jdbc-url / username / password: database của custom user provider
+ *   (để trống = datasource của ứng dụng)
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "users.import")
+public class UserImportProperties {
+
+    private String file;
+
+    private Format format = Format.AUTO;
+
+    private String jobId;
+
+    private String jdbcUrl;
+
+    private String username;
+
+    private String password;
+
+    /**
+     * Số records mỗi JDBC batch (và mỗi lượt hashing song song)
+     */
+    private int batchSize = 1000;
+
+    /**
+     * Commit (kèm checkpoint) sau mỗi bấy nhiêu records
+     */
+    private int commitInterval = 10000;
+
+    /**
+     * Số threads hashing BCrypt (0 = số cores)
+     */
+    private int parallelism = 0;
+
+    public enum Format {
+        AUTO,
+        CSV,
+        NDJSON
+    }
+}
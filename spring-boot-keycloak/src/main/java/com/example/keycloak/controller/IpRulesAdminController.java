@@ -0,0 +1,77 @@
+package com.example.keycloak.controller;
+
+import com.example.keycloak.dto.IpRulesRequest;
+import com.example.keycloak.dto.IpRulesStatus;
+import com.example.keycloak.filter.IpFilter;
+import com.example.keycloak.filter.IpListEntries;
+import com.example.keycloak.filter.IpRules;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import javax.validation.Valid;
+import java.io.IOException;
+
+/**
+ * Admin API quản lý IP whitelist/blacklist lúc runtime (không cần restart)
+ * Yêu cầu role admin (SecurityConfig: /api/admin/**)
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/admin/ip-rules")
+@RequiredArgsConstructor
+@Validated
+public class IpRulesAdminController {
+
+    private final IpFilter ipFilter;
+
+    /**
+     * Trạng thái snapshot hiện tại
+     */
+    @GetMapping
+    public ResponseEntity<IpRulesStatus> getStatus() {
+        return ResponseEntity.ok(toStatus(ipFilter.getRules()));
+    }
+
+    /**
+     * Thay toàn bộ danh sách IP do admin API quản lý
+     */
+    @PutMapping
+    public ResponseEntity<IpRulesStatus> replaceRules(@Valid @RequestBody IpRulesRequest request,
+                                                      Authentication authentication) {
+        IpRules rules = ipFilter.replaceAdminEntries(
+                new IpListEntries(request.getWhitelist(), request.getBlacklist()));
+        log.warn("IP_RULES_UPDATED | admin={} | version={}", authentication.getName(), rules.getVersion());
+        return ResponseEntity.ok(toStatus(rules));
+    }
+
+    /**
+     * Đọc lại file danh sách IP ngay lập tức
+     */
+    @PostMapping("/reload")
+    public ResponseEntity<IpRulesStatus> reloadFile(Authentication authentication) throws IOException {
+        IpRules rules = ipFilter.reloadFromFile();
+        log.warn("IP_RULES_RELOADED | admin={} | version={}", authentication.getName(), rules.getVersion());
+        return ResponseEntity.ok(toStatus(rules));
+    }
+
+    private IpRulesStatus toStatus(IpRules rules) {
+        CacheStats stats = ipFilter.getCacheStats();
+        return IpRulesStatus.builder()
+                .version(rules.getVersion())
+                .loadedAt(rules.getLoadedAt())
+                .whitelistEntries(rules.getWhitelistEntries())
+                .blacklistEntries(rules.getBlacklistEntries())
+                .ipv4Prefixes(rules.getMatcher().ipv4PrefixCount())
+                .ipv6Prefixes(rules.getMatcher().ipv6PrefixCount())
+                .cacheSize(rules.getCacheSize())
+                .cacheHits(stats.hitCount())
+                .cacheMisses(stats.missCount())
+                .cacheEvictions(stats.evictionCount())
+                .build();
+    }
+}
@@ -61,5 +61,26 @@ public class UserController {
         return ResponseEntity.ok(null);
     }
 
-  
+    /**
+     * Bulk lookup cho RemoteUserStorageProvider: /api/users/batch?username=a&username=b
+     * (hoặc email= / id=); trả về các users tìm thấy, value không tồn tại bị bỏ qua
+     */
+    @GetMapping("/batch")
+    public ResponseEntity<java.util.List<com.example.keycloak.provider.CustomUser>> getUsersBatch(
+            @RequestParam(required = false) java.util.List<String> username,
+            @RequestParam(required = false) java.util.List<String> email,
+            @RequestParam(required = false) java.util.List<String> id) {
+
+        java.util.Set<String> usernames = username != null ? new java.util.HashSet<>(username) : java.util.Set.of();
+        java.util.Set<String> emails = email != null ? new java.util.HashSet<>(email) : java.util.Set.of();
+        java.util.Set<String> ids = new java.util.HashSet<>();
+        if (id != null) {
+            // Extract plain ID if prefixed
+            id.forEach(value -> ids.add(value.startsWith("f:") ? value.substring(value.lastIndexOf(":") + 1) : value));
+        }
+        return ResponseEntity.ok(users.values().stream()
+                .filter(u -> usernames.contains(u.getUsername()) || emails.contains(u.getEmail())
+                        || ids.contains(u.getId()))
+                .toList());
+    }
 }
@@ -0,0 +1,20 @@
+package com.example.keycloak.dto;
+
+import lombok.Data;
+
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * Request cập nhật danh sách IP qua admin API
+ * Mỗi entry là IP đơn hoặc CIDR (IPv4/IPv6)
+ */
+@Data
+public class IpRulesRequest {
+
+    @Size(max = 100000, message = "Too many whitelist entries")
+    private List<String> whitelist;
+
+    @Size(max = 100000, message = "Too many blacklist entries")
+    private List<String> blacklist;
+}
@@ -0,0 +1,28 @@
+package com.example.keycloak.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Trạng thái IP rules snapshot hiện tại và verdict cache
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IpRulesStatus {
+    private long version;
+    private Instant loadedAt;
+    private int whitelistEntries;
+    private int blacklistEntries;
+    private int ipv4Prefixes;
+    private int ipv6Prefixes;
+    private long cacheSize;
+    private long cacheHits;
+    private long cacheMisses;
+    private long cacheEvictions;
+}
@@ -0,0 +1,11 @@
+package com.example.keycloak.exception;
+
+/**
+ * Service tạm thời quá tải (concurrency limit + hàng đợi đầy) - trả về 503 kèm Retry-After
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.keycloak.filter;
+
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * RateLimiter dùng Bucket4j: mỗi key một bucket trong BucketStore (local hoặc jcache)
+ */
+public final class BucketRateLimiter implements RateLimiter {
+
+    private final BucketStore buckets;
+
+    public BucketRateLimiter(BucketStore buckets) {
+        this.buckets = buckets;
+    }
+
+    @Override
+    public long tryAcquire(String key) {
+        ConsumptionProbe probe = buckets.getBucket(key).tryConsumeAndReturnRemaining(1);
+        return probe.isConsumed() ? 0 : Math.max(1, probe.getNanosToWaitForRefill());
+    }
+
+    @Override
+    public void bindMetrics(MeterRegistry registry) {
+        buckets.bindMetrics(registry);
+    }
+
+    public BucketStore getBuckets() {
+        return buckets;
+    }
+}
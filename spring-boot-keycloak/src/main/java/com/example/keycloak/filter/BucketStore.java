@@ -0,0 +1,25 @@
+package com.example.keycloak.filter;
+
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Nơi lưu buckets của một rate limit policy, theo key (IP / user)
+ *
+ * - LocalBucketStore: trong bộ nhớ của instance (mặc định)
+ * - JCacheBucketStore: state dùng chung giữa các instance qua JCache
+ */
+public interface BucketStore {
+
+    /**
+     * Bucket cho key, tạo mới nếu chưa có
+     */
+    Bucket getBucket(String key);
+
+    /**
+     * Số buckets đang giữ trong bộ nhớ của instance này
+     */
+    long size();
+
+    void bindMetrics(MeterRegistry registry);
+}
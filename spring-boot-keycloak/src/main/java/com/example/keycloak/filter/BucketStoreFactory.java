@@ -0,0 +1,100 @@
+package com.example.keycloak.filter;
+
+import com.example.keycloak.config.RateLimitProperties;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimization;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.TouchedExpiryPolicy;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tạo BucketStore cho mỗi rate limit policy theo security.rate-limit.backend
+ *
+ * - local: LocalBucketStore
+ * - jcache: JCacheBucketStore trên cache "cachePrefix + policy" của JCache CacheManager
+ *   (tạo cache nếu provider chưa khai báo sẵn; entry hết hạn khi idle đủ lâu để refill đầy)
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BucketStoreFactory {
+
+    private final RateLimitProperties properties;
+
+    private CacheManager cacheManager;
+
+    public synchronized BucketStore create(String name, BucketConfiguration configuration) {
+        if (properties.getBackend() == RateLimitProperties.Backend.LOCAL) {
+            return new LocalBucketStore(name, configuration, properties.getMaxBuckets());
+        }
+
+        RateLimitProperties.JCache jcache = properties.getJcache();
+        String cacheName = jcache.getCachePrefix() + name;
+        Cache<String, byte[]> cache = getCacheManager().getCache(cacheName, String.class, byte[].class);
+        if (cache == null) {
+            long idleMillis = LocalBucketStore.timeToFullRefill(configuration).toMillis();
+            cache = getCacheManager().createCache(cacheName, new MutableConfiguration<String, byte[]>()
+                    .setTypes(String.class, byte[].class)
+                    .setExpiryPolicyFactory(TouchedExpiryPolicy.factoryOf(
+                            new Duration(TimeUnit.MILLISECONDS, idleMillis))));
+        }
+        log.info("Rate limit policy '{}' uses distributed cache '{}' (optimization={})",
+                name, cacheName, jcache.getOptimization());
+        return new JCacheBucketStore(name, configuration, cache, optimization(jcache), properties.getMaxBuckets());
+    }
+
+    private CacheManager getCacheManager() {
+        if (cacheManager == null) {
+            RateLimitProperties.JCache jcache = properties.getJcache();
+            CachingProvider provider = isBlank(jcache.getProvider())
+                    ? Caching.getCachingProvider()
+                    : Caching.getCachingProvider(jcache.getProvider());
+            URI uri = isBlank(jcache.getConfigUri())
+                    ? provider.getDefaultURI()
+                    : URI.create(jcache.getConfigUri());
+            cacheManager = provider.getCacheManager(uri, getClass().getClassLoader());
+            log.info("Rate limit JCache provider: {} ({})", provider.getClass().getName(), uri);
+        }
+        return cacheManager;
+    }
+
+    private static Optimization optimization(RateLimitProperties.JCache jcache) {
+        DelayParameters delay = new DelayParameters(
+                jcache.getMaxUnsynchronizedTokens(), jcache.getMaxUnsynchronizedTimeout());
+        switch (jcache.getOptimization()) {
+            case BATCHING:
+                return Optimizations.batching();
+            case DELAYING:
+                return Optimizations.delaying(delay);
+            case PREDICTING:
+                return Optimizations.predicting(delay);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (cacheManager != null) {
+            cacheManager.close();
+            cacheManager = null;
+        }
+    }
+}
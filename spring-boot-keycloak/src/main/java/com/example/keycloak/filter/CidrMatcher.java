@@ -0,0 +1,188 @@
+package com.example.keycloak.filter;
+
+import java.util.Arrays;
+
+/**
+ * Compiled CIDR matcher (binary radix trie) cho IPv4 (32 bit) và IPv6 (128 bit)
+ *
+ * - Mỗi prefix mang một bitmask flags (ví dụ BLACKLIST / WHITELIST)
+ * - Lookup đi từ gốc xuống prefix dài nhất khớp với địa chỉ, OR flags của
+ *   mọi prefix đi qua: tối đa 32/128 bước, không cấp phát bộ nhớ
+ * - Trie được nén vào mảng int/byte khi build, sau đó bất biến (thread-safe)
+ */
+public final class CidrMatcher {
+
+    public static final int BLACKLIST = 1;
+    public static final int WHITELIST = 1 << 1;
+
+    private static final CidrMatcher EMPTY = builder().build();
+
+    // children[2 * node + bit] = node con, 0 = không có (node 0 là gốc)
+    private final int[] v4Children;
+    private final byte[] v4Flags;
+    private final int[] v6Children;
+    private final byte[] v6Flags;
+    private final int v4Prefixes;
+    private final int v6Prefixes;
+
+    private CidrMatcher(Trie v4, Trie v6) {
+        this.v4Children = Arrays.copyOf(v4.children, v4.size * 2);
+        this.v4Flags = Arrays.copyOf(v4.flags, v4.size);
+        this.v6Children = Arrays.copyOf(v6.children, v6.size * 2);
+        this.v6Flags = Arrays.copyOf(v6.flags, v6.size);
+        this.v4Prefixes = v4.prefixes;
+        this.v6Prefixes = v6.prefixes;
+    }
+
+    public static CidrMatcher empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Trả về OR flags của tất cả prefix chứa địa chỉ, 0 nếu không khớp
+     */
+    public int match(IpAddress address) {
+        if (address == null) {
+            return 0;
+        }
+        return address.isIpv4() ? matchIpv4(address.toIpv4Int()) : matchIpv6(address.high(), address.low());
+    }
+
+    public int matchIpv4(int address) {
+        int[] children = v4Children;
+        byte[] flags = v4Flags;
+        int node = 0;
+        int result = flags[0];
+        for (int bit = 31; bit >= 0; bit--) {
+            node = children[(node << 1) | ((address >>> bit) & 1)];
+            if (node == 0) {
+                break;
+            }
+            result |= flags[node];
+        }
+        return result;
+    }
+
+    public int matchIpv6(long high, long low) {
+        int[] children = v6Children;
+        byte[] flags = v6Flags;
+        int node = 0;
+        int result = flags[0];
+        for (int bit = 127; bit >= 0; bit--) {
+            long word = bit >= 64 ? high : low;
+            node = children[(node << 1) | (int) ((word >>> (bit & 63)) & 1L)];
+            if (node == 0) {
+                break;
+            }
+            result |= flags[node];
+        }
+        return result;
+    }
+
+    public int ipv4PrefixCount() {
+        return v4Prefixes;
+    }
+
+    public int ipv6PrefixCount() {
+        return v6Prefixes;
+    }
+
+    /**
+     * Builder: add các prefix rồi build() một lần (ví dụ trong init())
+     */
+    public static final class Builder {
+
+        private final Trie v4 = new Trie();
+        private final Trie v6 = new Trie();
+
+        private Builder() {
+        }
+
+        /**
+         * Thêm một IP đơn (a.b.c.d, ::1) hoặc CIDR (10.0.0.0/8, 2001:db8::/32)
+         *
+         * @throws IllegalArgumentException nếu entry không hợp lệ
+         */
+        public Builder add(String entry, int flags) {
+            if (entry == null || entry.isBlank()) {
+                throw new IllegalArgumentException("Empty IP entry");
+            }
+            String value = entry.trim();
+            int slash = value.indexOf('/');
+            IpAddress address = IpAddress.parse(value, 0, slash < 0 ? value.length() : slash);
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid IP address: " + entry);
+            }
+
+            int maxLength = address.isIpv4() ? 32 : 128;
+            int prefixLength = maxLength;
+            if (slash >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(value.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + entry);
+                }
+                // ::ffff:a.b.c.d/n được chuẩn hoá về IPv4
+                if (address.isIpv4() && value.indexOf(':') >= 0) {
+                    prefixLength -= 96;
+                }
+                if (prefixLength < 0 || prefixLength > maxLength) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + entry);
+                }
+            }
+
+            if (address.isIpv4()) {
+                v4.insert(0L, address.toIpv4Int() & 0xFFFFFFFFL, 32, prefixLength, flags);
+            } else {
+                v6.insert(address.high(), address.low(), 128, prefixLength, flags);
+            }
+            return this;
+        }
+
+        public CidrMatcher build() {
+            return new CidrMatcher(v4, v6);
+        }
+    }
+
+    /**
+     * Trie đang build, dùng mảng tăng dần
+     */
+    private static final class Trie {
+
+        private int[] children = new int[64];
+        private byte[] flags = new byte[32];
+        private int size = 1;
+        private int prefixes;
+
+        void insert(long high, long low, int width, int prefixLength, int prefixFlags) {
+            int node = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                int bit = width - 1 - i;
+                long word = bit >= 64 ? high : low;
+                int slot = (node << 1) | (int) ((word >>> (bit & 63)) & 1L);
+                int next = children[slot];
+                if (next == 0) {
+                    next = newNode();
+                    children[slot] = next;
+                }
+                node = next;
+            }
+            if (flags[node] == 0) {
+                prefixes++;
+            }
+            flags[node] |= (byte) prefixFlags;
+        }
+
+        private int newNode() {
+            if (size == flags.length) {
+                flags = Arrays.copyOf(flags, size * 2);
+                children = Arrays.copyOf(children, size * 4);
+            }
+            return size++;
+        }
+    }
+}
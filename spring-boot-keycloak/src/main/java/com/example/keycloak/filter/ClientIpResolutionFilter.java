@@ -0,0 +1,46 @@
+package com.example.keycloak.filter;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.MDC;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Stage đầu tiên của request: xác định IP client một lần duy nhất
+ *
+ * - Lưu IpAddress vào request attribute (ClientIpResolver.CLIENT_ADDRESS_ATTRIBUTE)
+ *   cho IpFilter, RateLimitingFilter, ...
+ * - Đưa IP vào MDC (clientIp) để mọi log, kể cả AUDIT log, có IP client
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class ClientIpResolutionFilter extends OncePerRequestFilter {
+
+    public static final String MDC_CLIENT_IP = "clientIp";
+
+    private final ClientIpResolver clientIpResolver;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+
+        IpAddress clientAddress = clientIpResolver.resolve(request);
+        MDC.put(MDC_CLIENT_IP, clientAddress != null ? clientAddress.toString() : "unknown");
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            MDC.remove(MDC_CLIENT_IP);
+        }
+    }
+}
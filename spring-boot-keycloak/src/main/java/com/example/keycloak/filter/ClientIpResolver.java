@@ -0,0 +1,113 @@
+package com.example.keycloak.filter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Xác định IP thật của client (một lần cho mỗi request)
+ *
+ * Bank-Level Security:
+ * - Chỉ tin X-Forwarded-For / X-Real-IP khi kết nối đến từ trusted proxy
+ * - Duyệt X-Forwarded-For từ phải sang trái, bỏ qua các hop là trusted proxy;
+ *   địa chỉ đầu tiên không phải trusted proxy là client (client không thể giả mạo
+ *   bằng cách chèn IP vào đầu header)
+ * - Scan header trực tiếp, không dùng split
+ * - Kết quả (IpAddress dạng số) lưu trong request attribute để các stage sau dùng lại
+ */
+@Slf4j
+@Component
+public class ClientIpResolver {
+
+    public static final String CLIENT_ADDRESS_ATTRIBUTE = ClientIpResolver.class.getName() + ".clientAddress";
+
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    private static final String X_REAL_IP = "X-Real-IP";
+    private static final int TRUSTED = 1;
+
+    // Ví dụ: "127.0.0.0/8,::1,10.0.0.0/8"
+    @Value("${security.ip.trusted-proxies:127.0.0.0/8,::1}")
+    private String trustedProxiesConfig;
+
+    private CidrMatcher trustedProxies = CidrMatcher.empty();
+
+    @PostConstruct
+    public void init() {
+        CidrMatcher.Builder builder = CidrMatcher.builder();
+        for (String entry : IpListEntries.fromConfig(trustedProxiesConfig, null).getWhitelist()) {
+            try {
+                builder.add(entry, TRUSTED);
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid trusted proxy entry: {}", e.getMessage());
+            }
+        }
+        trustedProxies = builder.build();
+        log.info("Trusted proxies loaded: prefixes ipv4={} ipv6={}",
+                trustedProxies.ipv4PrefixCount(), trustedProxies.ipv6PrefixCount());
+    }
+
+    /**
+     * IP client của request; resolve ở lần gọi đầu tiên, các lần sau đọc từ attribute
+     *
+     * @return null nếu không xác định được địa chỉ hợp lệ
+     */
+    public IpAddress resolve(HttpServletRequest request) {
+        Object cached = request.getAttribute(CLIENT_ADDRESS_ATTRIBUTE);
+        if (cached instanceof IpAddress) {
+            return (IpAddress) cached;
+        }
+        IpAddress address = resolve(request.getRemoteAddr(),
+                request.getHeader(X_FORWARDED_FOR),
+                request.getHeader(X_REAL_IP));
+        if (address != null) {
+            request.setAttribute(CLIENT_ADDRESS_ATTRIBUTE, address);
+        }
+        return address;
+    }
+
+    /**
+     * Resolve từ remote address của kết nối và các forwarding header
+     */
+    public IpAddress resolve(String remoteAddr, String xForwardedFor, String xRealIp) {
+        IpAddress peer = IpAddress.parse(remoteAddr);
+        if (peer == null || !isTrusted(peer)) {
+            // Kết nối trực tiếp từ client: bỏ qua mọi forwarding header
+            return peer;
+        }
+
+        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
+            IpAddress candidate = peer;
+            int end = xForwardedFor.length();
+            while (end > 0) {
+                int comma = xForwardedFor.lastIndexOf(',', end - 1);
+                IpAddress hop = IpAddress.parse(xForwardedFor, comma + 1, end);
+                if (hop == null) {
+                    // Hop không hợp lệ: dừng ở hop trusted gần nhất
+                    return candidate;
+                }
+                if (!isTrusted(hop)) {
+                    return hop;
+                }
+                candidate = hop;
+                end = comma;
+            }
+            // Toàn bộ chain là trusted proxy: dùng hop xa nhất
+            return candidate;
+        }
+
+        if (xRealIp != null && !xRealIp.isEmpty()) {
+            IpAddress realIp = IpAddress.parse(xRealIp);
+            if (realIp != null) {
+                return realIp;
+            }
+        }
+        return peer;
+    }
+
+    private boolean isTrusted(IpAddress address) {
+        return trustedProxies.match(address) != 0;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.keycloak.filter;
+
+/**
+ * Địa chỉ IP dạng số (IPv4 hoặc IPv6)
+ *
+ * - IPv4 lưu trong 32 bit thấp của {@code lo}
+ * - IPv6 lưu dạng 128 bit ({@code hi}, {@code lo})
+ * - IPv4-mapped IPv6 (::ffff:a.b.c.d) được chuẩn hoá về IPv4
+ * - Parse trực tiếp trên CharSequence, không dùng split/regex
+ */
+public final class IpAddress {
+
+    private final long hi;
+    private final long lo;
+    private final boolean ipv4;
+
+    // Dạng text chỉ tạo khi cần (logging)
+    private String text;
+
+    private IpAddress(long hi, long lo, boolean ipv4) {
+        this.hi = hi;
+        this.lo = lo;
+        this.ipv4 = ipv4;
+    }
+
+    public static IpAddress ofIpv4(int address) {
+        return new IpAddress(0L, address & 0xFFFFFFFFL, true);
+    }
+
+    public static IpAddress ofIpv6(long hi, long lo) {
+        if (hi == 0L && (lo >>> 32) == 0xFFFFL) {
+            return ofIpv4((int) lo);
+        }
+        return new IpAddress(hi, lo, false);
+    }
+
+    /**
+     * Parse địa chỉ IP, trả về null nếu không hợp lệ
+     */
+    public static IpAddress parse(CharSequence value) {
+        return value == null ? null : parse(value, 0, value.length());
+    }
+
+    /**
+     * Parse địa chỉ IP trong đoạn [from, to) của value, bỏ qua khoảng trắng,
+     * dấu [] và zone id (%eth0). Trả về null nếu không hợp lệ.
+     */
+    public static IpAddress parse(CharSequence value, int from, int to) {
+        while (from < to && Character.isWhitespace(value.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(value.charAt(to - 1))) {
+            to--;
+        }
+        if (from < to && value.charAt(from) == '[') {
+            int close = indexOf(value, ']', from, to);
+            if (close < 0) {
+                return null;
+            }
+            from++;
+            to = close;
+        }
+        int zone = indexOf(value, '%', from, to);
+        if (zone >= 0) {
+            to = zone;
+        }
+        if (from >= to) {
+            return null;
+        }
+
+        if (indexOf(value, ':', from, to) < 0) {
+            long v4 = parseIpv4(value, from, to);
+            return v4 < 0 ? null : ofIpv4((int) v4);
+        }
+        return parseIpv6(value, from, to);
+    }
+
+    /**
+     * Parse IPv4 dạng a.b.c.d, trả về -1 nếu không hợp lệ
+     */
+    static long parseIpv4(CharSequence value, int from, int to) {
+        long result = 0;
+        int octets = 0;
+        int current = -1;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                current = (current < 0 ? 0 : current * 10) + (c - '0');
+                if (current > 255) {
+                    return -1;
+                }
+            } else if (c == '.') {
+                if (current < 0 || octets == 3) {
+                    return -1;
+                }
+                result = (result << 8) | current;
+                octets++;
+                current = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (current < 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | current;
+    }
+
+    private static IpAddress parseIpv6(CharSequence value, int from, int to) {
+        // head = các group trước "::", tail = các group sau "::"
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headGroups = 0, tailGroups = 0;
+        boolean compressed = false;
+
+        int i = from;
+        if (to - from >= 2 && value.charAt(from) == ':' && value.charAt(from + 1) == ':') {
+            compressed = true;
+            i += 2;
+        } else if (value.charAt(from) == ':') {
+            return null;
+        }
+
+        while (i < to) {
+            int end = i;
+            while (end < to && value.charAt(end) != ':') {
+                end++;
+            }
+            if (end == i) {
+                // Group rỗng ngoài vị trí "::"
+                return null;
+            }
+
+            if (end == to && indexOf(value, '.', i, end) >= 0) {
+                // IPv4 nhúng ở cuối, chiếm 2 group
+                long v4 = parseIpv4(value, i, end);
+                if (v4 < 0) {
+                    return null;
+                }
+                for (int shift = 16; shift >= 0; shift -= 16) {
+                    int group = (int) ((v4 >>> shift) & 0xFFFF);
+                    if (compressed) {
+                        tailHi = (tailHi << 16) | (tailLo >>> 48);
+                        tailLo = (tailLo << 16) | group;
+                        tailGroups++;
+                    } else {
+                        headHi = (headHi << 16) | (headLo >>> 48);
+                        headLo = (headLo << 16) | group;
+                        headGroups++;
+                    }
+                }
+                break;
+            }
+
+            if (end - i > 4) {
+                return null;
+            }
+            int group = 0;
+            for (int j = i; j < end; j++) {
+                int digit = Character.digit(value.charAt(j), 16);
+                if (digit < 0) {
+                    return null;
+                }
+                group = (group << 4) | digit;
+            }
+            if (compressed) {
+                tailHi = (tailHi << 16) | (tailLo >>> 48);
+                tailLo = (tailLo << 16) | group;
+                tailGroups++;
+            } else {
+                headHi = (headHi << 16) | (headLo >>> 48);
+                headLo = (headLo << 16) | group;
+                headGroups++;
+            }
+            if (headGroups + tailGroups > 8) {
+                return null;
+            }
+
+            if (end == to) {
+                break;
+            }
+            if (end + 1 < to && value.charAt(end + 1) == ':') {
+                // "::" chỉ được xuất hiện một lần
+                if (compressed) {
+                    return null;
+                }
+                compressed = true;
+                i = end + 2;
+            } else if (end + 1 == to) {
+                // Kết thúc bằng ":" đơn
+                return null;
+            } else {
+                i = end + 1;
+            }
+        }
+
+        int groups = headGroups + tailGroups;
+        if (compressed ? groups > 7 : groups != 8) {
+            return null;
+        }
+
+        // Dịch head sang trái để nhường chỗ cho các group bị nén và tail
+        for (int k = headGroups; k < 8; k++) {
+            headHi = (headHi << 16) | (headLo >>> 48);
+            headLo = headLo << 16;
+        }
+        return ofIpv6(headHi | tailHi, headLo | tailLo);
+    }
+
+    private static int indexOf(CharSequence value, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (value.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isIpv4() {
+        return ipv4;
+    }
+
+    /**
+     * 32 bit của địa chỉ IPv4
+     */
+    public int toIpv4Int() {
+        return (int) lo;
+    }
+
+    /**
+     * 64 bit cao của địa chỉ IPv6
+     */
+    public long high() {
+        return hi;
+    }
+
+    /**
+     * 64 bit thấp của địa chỉ IPv6 (hoặc IPv4 trong 32 bit thấp)
+     */
+    public long low() {
+        return lo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IpAddress)) {
+            return false;
+        }
+        IpAddress other = (IpAddress) o;
+        return hi == other.hi && lo == other.lo && ipv4 == other.ipv4;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        return (int) (h ^ (h >>> 32)) ^ (ipv4 ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        String s = text;
+        if (s == null) {
+            s = ipv4 ? formatIpv4() : formatIpv6();
+            text = s;
+        }
+        return s;
+    }
+
+    private String formatIpv4() {
+        return ((lo >>> 24) & 0xFF) + "." + ((lo >>> 16) & 0xFF) + "."
+                + ((lo >>> 8) & 0xFF) + "." + (lo & 0xFF);
+    }
+
+    private String formatIpv6() {
+        StringBuilder sb = new StringBuilder(39);
+        for (int g = 0; g < 8; g++) {
+            long word = g < 4 ? hi : lo;
+            int shift = 48 - 16 * (g & 3);
+            if (g > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString((int) ((word >>> shift) & 0xFFFF)));
+        }
+        return sb.toString();
+    }
+}
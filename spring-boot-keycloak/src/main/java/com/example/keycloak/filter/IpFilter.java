@@ -1,12 +1,16 @@
 package com.example.keycloak.filter;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
-import org.springframework.http.HttpStatus;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.FilterChain;
@@ -14,10 +18,9 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * IP Whitelisting/Blacklisting Filter
@@ -25,13 +28,30 @@ import java.util.concurrent.ConcurrentHashMap;
  * Bank-Level Security:
  * - Chặn các IP trong blacklist
  * - Chỉ cho phép IP trong whitelist (nếu whitelist được bật)
- * - Hỗ trợ CIDR notation cho IP ranges
+ * - Hỗ trợ CIDR notation cho IP ranges (IPv4 và IPv6, cả whitelist và blacklist)
+ * - Lookup qua compiled radix trie (CidrMatcher), không phụ thuộc số lượng ranges
+ * - Verdict cache giới hạn kích thước (Caffeine), key là địa chỉ dạng số
+ * - Hot reload: danh sách từ application.yml + file (WatchService) + admin API,
+ *   compile thành IpRules mới ngoài request path rồi swap qua một volatile reference
  */
 @Slf4j
 @Component
 @Order(0) // Chạy trước RateLimitingFilter
+@RequiredArgsConstructor
 public class IpFilter extends OncePerRequestFilter {
 
+    /**
+     * Kết quả kiểm tra IP (blacklist + whitelist gộp làm một)
+     */
+    public enum Verdict {
+        ALLOW,
+        BLACKLISTED,
+        NOT_WHITELISTED
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final ClientIpResolver clientIpResolver;
+
     @Value("${security.ip.whitelist.enabled:false}")
     private boolean whitelistEnabled;
     
@@ -41,156 +61,139 @@ public class IpFilter extends OncePerRequestFilter {
     @Value("${security.ip.blacklist:}")
     private String blacklistConfig;
     
-    private Set<String> whitelist = new HashSet<>();
-    private Set<String> blacklist = new HashSet<>();
-    private Set<String> whitelistCidr = new HashSet<>();
+    @Value("${security.ip.cache.max-size:100000}")
+    private long cacheMaxSize;
+    
+    // File danh sách IP (allow/deny), rỗng = không dùng
+    @Value("${security.ip.list-file:}")
+    private String listFile;
+    
+    // Snapshot hiện tại: request path chỉ đọc volatile này, không bao giờ bị block bởi reload
+    private volatile IpRules rules;
+    
+    // Các nguồn danh sách IP, chỉ thay đổi trong reload (synchronized)
+    private IpListEntries configEntries = IpListEntries.EMPTY;
+    private IpListEntries fileEntries = IpListEntries.EMPTY;
+    private IpListEntries adminEntries = IpListEntries.EMPTY;
     
-    // Cache để tránh parse lại IP mỗi lần
-    private final ConcurrentHashMap<String, Boolean> ipCache = new ConcurrentHashMap<>();
+    // Stats của các verdict cache đã bị thay thế, để counters luôn tăng dần
+    private volatile CacheStats retiredCacheStats = CacheStats.empty();
+    private long nextVersion = 1;
     
     @PostConstruct
     public void init() {
-        // Parse whitelist
-        if (whitelistConfig != null && !whitelistConfig.isEmpty()) {
-            Arrays.stream(whitelistConfig.split(","))
-                .map(String::trim)
-                .forEach(ip -> {
-                    if (ip.contains("/")) {
-                        whitelistCidr.add(ip);
-                    } else {
-                        whitelist.add(ip);
-                    }
-                });
-            log.info("IP Whitelist loaded: {} IPs, {} CIDR ranges", whitelist.size(), whitelistCidr.size());
+        configEntries = IpListEntries.fromConfig(whitelistConfig, blacklistConfig);
+        if (getListFile() != null) {
+            try {
+                fileEntries = IpListEntries.readFile(getListFile());
+            } catch (Exception e) {
+                log.error("Failed to load IP list file {}: {}", listFile, e.getMessage());
+            }
         }
+        rebuild("startup");
         
-        // Parse blacklist
-        if (blacklistConfig != null && !blacklistConfig.isEmpty()) {
-            Arrays.stream(blacklistConfig.split(","))
-                .map(String::trim)
-                .forEach(ip -> blacklist.add(ip));
-            log.info("IP Blacklist loaded: {} IPs", blacklist.size());
+        // Export hit/miss/eviction counters (cộng dồn qua các lần reload)
+        FunctionCounter.builder("cache.gets", this, f -> f.getCacheStats().hitCount())
+                .tags("cache", "ipVerdict", "result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.gets", this, f -> f.getCacheStats().missCount())
+                .tags("cache", "ipVerdict", "result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", this, f -> f.getCacheStats().evictionCount())
+                .tag("cache", "ipVerdict")
+                .register(meterRegistry);
+        Gauge.builder("cache.size", this, f -> f.getRules().getCacheSize())
+                .tag("cache", "ipVerdict")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Đọc lại file danh sách IP và publish snapshot mới
+     */
+    public IpRules reloadFromFile() throws IOException {
+        Path file = getListFile();
+        if (file == null) {
+            throw new IllegalStateException("security.ip.list-file is not configured");
+        }
+        IpListEntries entries = IpListEntries.readFile(file);
+        synchronized (this) {
+            fileEntries = entries;
+            return rebuild("file");
         }
     }
     
+    /**
+     * Thay danh sách IP do admin API quản lý và publish snapshot mới
+     *
+     * @throws IllegalArgumentException nếu có entry không hợp lệ (không thay đổi gì)
+     */
+    public IpRules replaceAdminEntries(IpListEntries entries) {
+        entries.validate();
+        synchronized (this) {
+            adminEntries = entries;
+            return rebuild("admin");
+        }
+    }
+    
+    private synchronized IpRules rebuild(String source) {
+        IpRules previous = rules;
+        IpRules next = IpRules.compile(nextVersion++, whitelistEnabled, cacheMaxSize,
+                List.of(configEntries, fileEntries, adminEntries));
+        if (previous != null) {
+            retiredCacheStats = retiredCacheStats.plus(previous.getCacheStats());
+        }
+        // Một lần ghi volatile: matcher mới + verdict cache rỗng có hiệu lực cùng lúc
+        rules = next;
+        
+        log.info("IP rules v{} loaded from {}: whitelist={} entries, blacklist={} entries, prefixes ipv4={} ipv6={}",
+                next.getVersion(), source, next.getWhitelistEntries(), next.getBlacklistEntries(),
+                next.getMatcher().ipv4PrefixCount(), next.getMatcher().ipv6PrefixCount());
+        return next;
+    }
+    
+    public Path getListFile() {
+        return listFile == null || listFile.isBlank() ? null : Paths.get(listFile);
+    }
+    
     @Override
     protected void doFilterInternal(HttpServletRequest request, 
                                    HttpServletResponse response, 
                                    FilterChain filterChain) 
             throws ServletException, IOException {
         
-        String clientIp = getClientIpAddress(request);
-        
-        // Kiểm tra blacklist trước
-        if (isBlacklisted(clientIp)) {
-            log.warn("IP_BLOCKED | ip={} | reason=BLACKLISTED | path={}", 
-                    clientIp, request.getRequestURI());
-            
-            response.setStatus(HttpStatus.FORBIDDEN.value());
-            response.setContentType("application/json");
-            response.getWriter().write(
-                "{\"error\":\"Access denied\",\"message\":\"Your IP address has been blocked.\"}"
-            );
+        // Đã kiểm tra ở EdgeSheddingValve
+        if (request.getAttribute(EdgeSheddingValve.CHECKED_ATTRIBUTE) != null) {
+            filterChain.doFilter(request, response);
             return;
         }
         
-        // Kiểm tra whitelist nếu được bật
-        if (whitelistEnabled && !isWhitelisted(clientIp)) {
-            log.warn("IP_BLOCKED | ip={} | reason=NOT_WHITELISTED | path={}", 
-                    clientIp, request.getRequestURI());
-            
-            response.setStatus(HttpStatus.FORBIDDEN.value());
-            response.setContentType("application/json");
-            response.getWriter().write(
-                "{\"error\":\"Access denied\",\"message\":\"Your IP address is not authorized.\"}"
-            );
+        // IP đã được resolve bởi ClientIpResolutionFilter
+        IpAddress clientIp = clientIpResolver.resolve(request);
+        Verdict verdict = evaluate(clientIp);
+        
+        // Blacklist luôn được ưu tiên hơn whitelist
+        if (verdict != Verdict.ALLOW) {
+            log.warn("IP_BLOCKED | ip={} | reason={} | path={}", 
+                    clientIp, verdict, request.getRequestURI());
+            RejectionResponses.forbidden(response, verdict);
             return;
         }
         
         filterChain.doFilter(request, response);
     }
     
-    private boolean isBlacklisted(String ip) {
-        // Kiểm tra cache trước
-        Boolean cached = ipCache.get("blacklist:" + ip);
-        if (cached != null) {
-            return cached;
-        }
-        
-        // Kiểm tra exact match
-        boolean blacklisted = blacklist.contains(ip);
-        
-        // Cache kết quả
-        ipCache.put("blacklist:" + ip, blacklisted);
-        return blacklisted;
+    /**
+     * Verdict cho một địa chỉ theo snapshot hiện tại
+     */
+    public Verdict evaluate(IpAddress address) {
+        return rules.evaluate(address);
     }
     
-    private boolean isWhitelisted(String ip) {
-        // Kiểm tra cache trước
-        Boolean cached = ipCache.get("whitelist:" + ip);
-        if (cached != null) {
-            return cached;
-        }
-        
-        // Kiểm tra exact match
-        if (whitelist.contains(ip)) {
-            ipCache.put("whitelist:" + ip, true);
-            return true;
-        }
-        
-        // Kiểm tra CIDR ranges
-        for (String cidr : whitelistCidr) {
-            if (isIpInCidr(ip, cidr)) {
-                ipCache.put("whitelist:" + ip, true);
-                return true;
-            }
-        }
-        
-        ipCache.put("whitelist:" + ip, false);
-        return false;
+    public IpRules getRules() {
+        return rules;
     }
     
-    private boolean isIpInCidr(String ip, String cidr) {
-        try {
-            String[] parts = cidr.split("/");
-            if (parts.length != 2) {
-                return false;
-            }
-            
-            String cidrIp = parts[0];
-            int prefixLength = Integer.parseInt(parts[1]);
-            
-            long ipLong = ipToLong(ip);
-            long cidrIpLong = ipToLong(cidrIp);
-            long mask = ~((1L << (32 - prefixLength)) - 1);
-            
-            return (ipLong & mask) == (cidrIpLong & mask);
-        } catch (Exception e) {
-            log.error("Error checking CIDR: {}", e.getMessage());
-            return false;
-        }
-    }
-    
-    private long ipToLong(String ip) {
-        String[] parts = ip.split("\\.");
-        return (Long.parseLong(parts[0]) << 24) +
-               (Long.parseLong(parts[1]) << 16) +
-               (Long.parseLong(parts[2]) << 8) +
-               Long.parseLong(parts[3]);
-    }
-    
-    private String getClientIpAddress(HttpServletRequest request) {
-        String xForwardedFor = request.getHeader("X-Forwarded-For");
-        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-            return xForwardedFor.split(",")[0].trim();
-        }
-        
-        String xRealIp = request.getHeader("X-Real-IP");
-        if (xRealIp != null && !xRealIp.isEmpty()) {
-            return xRealIp;
-        }
-        
-        return request.getRemoteAddr();
+    public CacheStats getCacheStats() {
+        return retiredCacheStats.plus(rules.getCacheStats());
     }
 }
-
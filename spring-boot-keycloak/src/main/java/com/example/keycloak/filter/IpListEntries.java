@@ -0,0 +1,104 @@
+package com.example.keycloak.filter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Danh sách IP whitelist/blacklist từ một nguồn (application.yml, file, admin API)
+ *
+ * Format file (mỗi dòng một entry, '#' là comment):
+ * <pre>
+ * allow 10.0.0.0/8
+ * deny  203.0.113.7
+ * deny  2001:db8::/32
+ * </pre>
+ */
+public final class IpListEntries {
+
+    public static final IpListEntries EMPTY = new IpListEntries(List.of(), List.of());
+
+    private final List<String> whitelist;
+    private final List<String> blacklist;
+
+    public IpListEntries(List<String> whitelist, List<String> blacklist) {
+        this.whitelist = whitelist == null ? List.of() : Collections.unmodifiableList(new ArrayList<>(whitelist));
+        this.blacklist = blacklist == null ? List.of() : Collections.unmodifiableList(new ArrayList<>(blacklist));
+    }
+
+    /**
+     * Parse từ config dạng "ip1,ip2,cidr3"
+     */
+    public static IpListEntries fromConfig(String whitelistConfig, String blacklistConfig) {
+        return new IpListEntries(splitConfig(whitelistConfig), splitConfig(blacklistConfig));
+    }
+
+    private static List<String> splitConfig(String config) {
+        List<String> entries = new ArrayList<>();
+        if (config != null && !config.isEmpty()) {
+            for (String entry : config.split(",")) {
+                if (!entry.isBlank()) {
+                    entries.add(entry.trim());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Đọc file danh sách IP, trả về EMPTY nếu file không tồn tại
+     *
+     * @throws IllegalArgumentException nếu dòng không đúng format allow/deny
+     */
+    public static IpListEntries readFile(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return EMPTY;
+        }
+        List<String> whitelist = new ArrayList<>();
+        List<String> blacklist = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            String value = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            String[] parts = value.split("\\s+", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid IP list line " + lineNumber + ": " + value);
+            }
+            if ("allow".equalsIgnoreCase(parts[0])) {
+                whitelist.add(parts[1].trim());
+            } else if ("deny".equalsIgnoreCase(parts[0])) {
+                blacklist.add(parts[1].trim());
+            } else {
+                throw new IllegalArgumentException("Invalid IP list line " + lineNumber + ": " + value);
+            }
+        }
+        return new IpListEntries(whitelist, blacklist);
+    }
+
+    /**
+     * Kiểm tra tất cả entries đều là IP/CIDR hợp lệ
+     *
+     * @throws IllegalArgumentException với entry đầu tiên không hợp lệ
+     */
+    public void validate() {
+        CidrMatcher.Builder builder = CidrMatcher.builder();
+        whitelist.forEach(entry -> builder.add(entry, CidrMatcher.WHITELIST));
+        blacklist.forEach(entry -> builder.add(entry, CidrMatcher.BLACKLIST));
+    }
+
+    public List<String> getWhitelist() {
+        return whitelist;
+    }
+
+    public List<String> getBlacklist() {
+        return blacklist;
+    }
+}
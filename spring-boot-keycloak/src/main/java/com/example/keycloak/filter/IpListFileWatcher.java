@@ -0,0 +1,109 @@
+package com.example.keycloak.filter;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Theo dõi file danh sách IP (security.ip.list-file) bằng NIO WatchService
+ *
+ * - Chạy trên daemon thread riêng, reload không nằm trên request path
+ * - Watch thư mục cha để bắt cả trường hợp editor ghi file mới rồi rename
+ * - Debounce để một lần lưu file chỉ gây một lần reload
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IpListFileWatcher {
+
+    private final IpFilter ipFilter;
+
+    @Value("${security.ip.list-file-debounce-ms:200}")
+    private long debounceMs;
+
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path file = ipFilter.getListFile();
+        if (file == null) {
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        watcherThread = new Thread(() -> watch(file.getFileName()), "ip-list-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info("Watching IP list file {}", file.toAbsolutePath());
+    }
+
+    private void watch(Path fileName) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = isRelevant(key, fileName);
+                key.reset();
+                if (!changed) {
+                    continue;
+                }
+
+                // Gom các event liên tiếp của cùng một lần ghi file
+                Thread.sleep(debounceMs);
+                WatchKey pending;
+                while ((pending = watchService.poll()) != null) {
+                    pending.pollEvents();
+                    pending.reset();
+                }
+
+                try {
+                    ipFilter.reloadFromFile();
+                } catch (Exception e) {
+                    // Giữ nguyên snapshot cũ nếu file lỗi
+                    log.error("Failed to reload IP list file: {}", e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Shutdown
+        }
+    }
+
+    private boolean isRelevant(WatchKey key, Path fileName) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context())) {
+                relevant = true;
+            }
+        }
+        return relevant;
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
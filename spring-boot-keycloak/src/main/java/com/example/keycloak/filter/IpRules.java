@@ -0,0 +1,120 @@
+package com.example.keycloak.filter;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Snapshot bất biến của IP rules: compiled matcher + verdict cache riêng
+ *
+ * Mỗi lần reload tạo snapshot mới rồi publish bằng một lần ghi volatile,
+ * nên matcher và cache luôn được thay cùng lúc (cache cũ bị bỏ theo snapshot cũ).
+ */
+@Slf4j
+public final class IpRules {
+
+    private final long version;
+    private final Instant loadedAt;
+    private final boolean whitelistEnabled;
+    private final CidrMatcher matcher;
+    private final int whitelistEntries;
+    private final int blacklistEntries;
+    private final LoadingCache<IpAddress, IpFilter.Verdict> verdictCache;
+
+    private IpRules(long version, boolean whitelistEnabled, CidrMatcher matcher,
+                    int whitelistEntries, int blacklistEntries, long cacheMaxSize) {
+        this.version = version;
+        this.loadedAt = Instant.now();
+        this.whitelistEnabled = whitelistEnabled;
+        this.matcher = matcher;
+        this.whitelistEntries = whitelistEntries;
+        this.blacklistEntries = blacklistEntries;
+        this.verdictCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build(this::computeVerdict);
+    }
+
+    /**
+     * Compile các nguồn danh sách IP thành một snapshot (entry không hợp lệ bị bỏ qua)
+     */
+    public static IpRules compile(long version, boolean whitelistEnabled, long cacheMaxSize,
+                                  List<IpListEntries> sources) {
+        CidrMatcher.Builder builder = CidrMatcher.builder();
+        int whitelistEntries = 0;
+        int blacklistEntries = 0;
+        for (IpListEntries source : sources) {
+            whitelistEntries += addEntries(builder, source.getWhitelist(), CidrMatcher.WHITELIST);
+            blacklistEntries += addEntries(builder, source.getBlacklist(), CidrMatcher.BLACKLIST);
+        }
+        return new IpRules(version, whitelistEnabled, builder.build(),
+                whitelistEntries, blacklistEntries, cacheMaxSize);
+    }
+
+    private static int addEntries(CidrMatcher.Builder builder, List<String> entries, int flags) {
+        int count = 0;
+        for (String entry : entries) {
+            try {
+                builder.add(entry, flags);
+                count++;
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid IP list entry: {}", e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Verdict cho một địa chỉ: một lookup cache, trie chỉ chạy khi cache miss
+     */
+    public IpFilter.Verdict evaluate(IpAddress address) {
+        if (address == null) {
+            // IP không parse được: không thể thuộc whitelist, không cache
+            return computeVerdict(null);
+        }
+        return verdictCache.get(address);
+    }
+
+    private IpFilter.Verdict computeVerdict(IpAddress address) {
+        int flags = matcher.match(address);
+        if ((flags & CidrMatcher.BLACKLIST) != 0) {
+            return IpFilter.Verdict.BLACKLISTED;
+        }
+        if (whitelistEnabled && (flags & CidrMatcher.WHITELIST) == 0) {
+            return IpFilter.Verdict.NOT_WHITELISTED;
+        }
+        return IpFilter.Verdict.ALLOW;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    public CidrMatcher getMatcher() {
+        return matcher;
+    }
+
+    public int getWhitelistEntries() {
+        return whitelistEntries;
+    }
+
+    public int getBlacklistEntries() {
+        return blacklistEntries;
+    }
+
+    public long getCacheSize() {
+        return verdictCache.estimatedSize();
+    }
+
+    public CacheStats getCacheStats() {
+        return verdictCache.stats();
+    }
+}
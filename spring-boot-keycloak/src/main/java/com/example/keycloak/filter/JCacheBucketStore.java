@@ -0,0 +1,83 @@
+package com.example.keycloak.filter;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.RemoteBucketBuilder;
+import io.github.bucket4j.distributed.proxy.optimization.DefaultOptimizationListener;
+import io.github.bucket4j.distributed.proxy.optimization.Optimization;
+import io.github.bucket4j.grid.jcache.JCacheProxyManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import javax.cache.Cache;
+import java.util.function.Function;
+
+/**
+ * Bucket4j buckets dùng chung giữa các instance qua JCache ProxyManager
+ *
+ * - State của bucket nằm trong JCache (Hazelcast / Ignite / Infinispan ...):
+ *   N replicas sau load balancer dùng chung một limit, không phải N lần limit
+ * - Optimization (delaying / predicting / batching): mỗi instance consume trên
+ *   bản sao local và chỉ đồng bộ khi đủ số token hoặc hết timeout,
+ *   thay vì một round trip tới cluster cho mỗi request
+ * - BucketProxy được giữ trong Caffeine local (giữ state của optimization),
+ *   cùng chính sách hết hạn / giới hạn như LocalBucketStore
+ */
+public final class JCacheBucketStore implements BucketStore {
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<String, Bucket> proxies;
+    private final Function<String, Bucket> proxyFactory;
+    private final DefaultOptimizationListener optimizationListener = new DefaultOptimizationListener();
+
+    public JCacheBucketStore(String name, BucketConfiguration configuration, Cache<String, byte[]> cache,
+                             Optimization optimization, long maxEntries) {
+        this.name = name;
+        RemoteBucketBuilder<String> builder = new JCacheProxyManager<>(cache).builder();
+        if (optimization != null) {
+            builder = builder.withOptimization(optimization.withListener(optimizationListener));
+        }
+        RemoteBucketBuilder<String> bucketBuilder = builder;
+        this.proxyFactory = key -> bucketBuilder.build(key, () -> configuration);
+        this.proxies = Caffeine.newBuilder()
+                .expireAfterAccess(LocalBucketStore.timeToFullRefill(configuration))
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Bucket getBucket(String key) {
+        Bucket bucket = proxies.getIfPresent(key);
+        if (bucket == null) {
+            bucket = proxies.get(key, proxyFactory);
+        }
+        return bucket;
+    }
+
+    @Override
+    public long size() {
+        return proxies.estimatedSize();
+    }
+
+    /**
+     * Export: cache.* (cache=rateLimitBucketProxies) + ratelimit.sync.merged / ratelimit.sync.skipped
+     * (số request được xử lý local không cần round trip tới cluster)
+     */
+    @Override
+    public void bindMetrics(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, proxies, "rateLimitBucketProxies", "store", name);
+        FunctionCounter.builder("ratelimit.sync.merged", optimizationListener,
+                        DefaultOptimizationListener::getMergeCount)
+                .tag("store", name)
+                .description("Rate limit commands merged into a single remote call")
+                .register(registry);
+        FunctionCounter.builder("ratelimit.sync.skipped", optimizationListener,
+                        DefaultOptimizationListener::getSkipCount)
+                .tag("store", name)
+                .description("Rate limit commands served locally without a remote call")
+                .register(registry);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.keycloak.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.local.LocalBucketBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bucket4j buckets trong bộ nhớ, có giới hạn và tự hết hạn
+ *
+ * - Bucket bị xoá khi idle đủ lâu để refill đầy: bucket mới tạo lại có cùng
+ *   trạng thái, nên việc xoá không làm thay đổi kết quả rate limiting
+ * - Giới hạn cứng số entries; khi đầy Caffeine evict theo W-TinyLFU
+ *   (entry cũ, ít dùng bị loại trước - IP xoay vòng của botnet không đẩy
+ *   được bucket của client đang hoạt động ra ngoài)
+ * - Export số entries và ước lượng bytes để sizing heap
+ */
+public final class LocalBucketStore implements BucketStore {
+
+    /**
+     * Ước lượng bytes cho mỗi entry: LockFreeBucket + AtomicReference + state (long[])
+     * + Caffeine node (access-order + size) + key String IP (~15 ký tự)
+     */
+    static final long ESTIMATED_BYTES_PER_ENTRY = 320;
+
+    private final String name;
+    private final Cache<String, Bucket> buckets;
+    private final Function<String, Bucket> bucketFactory;
+
+    public LocalBucketStore(String name, BucketConfiguration configuration, long maxEntries) {
+        this.name = name;
+        this.bucketFactory = key -> newBucket(configuration);
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(timeToFullRefill(configuration))
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Bucket getBucket(String key) {
+        Bucket bucket = buckets.getIfPresent(key);
+        if (bucket == null) {
+            bucket = buckets.get(key, bucketFactory);
+        }
+        return bucket;
+    }
+
+    private static Bucket newBucket(BucketConfiguration configuration) {
+        LocalBucketBuilder builder = Bucket.builder();
+        for (Bandwidth bandwidth : configuration.getBandwidths()) {
+            builder.addLimit(bandwidth);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Thời gian để bucket refill đầy từ 0 token (idle lâu hơn thì có thể xoá bucket)
+     */
+    public static Duration timeToFullRefill(BucketConfiguration configuration) {
+        long maxNanos = 0;
+        for (Bandwidth bandwidth : configuration.getBandwidths()) {
+            long refills = (bandwidth.getCapacity() + bandwidth.getRefillTokens() - 1) / bandwidth.getRefillTokens();
+            maxNanos = Math.max(maxNanos, refills * bandwidth.getRefillPeriodNanos());
+        }
+        return Duration.ofNanos(maxNanos);
+    }
+
+    @Override
+    public long size() {
+        return buckets.estimatedSize();
+    }
+
+    public long estimatedBytes() {
+        return size() * ESTIMATED_BYTES_PER_ENTRY;
+    }
+
+    /**
+     * Export: ratelimit.buckets.bytes + cache.size / cache.evictions / cache.gets (cache=rateLimitBuckets)
+     */
+    @Override
+    public void bindMetrics(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, buckets, "rateLimitBuckets", "store", name);
+        Gauge.builder("ratelimit.buckets.bytes", this, LocalBucketStore::estimatedBytes)
+                .tag("store", name)
+                .baseUnit("bytes")
+                .description("Estimated heap used by rate limit buckets")
+                .register(registry);
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.keycloak.filter;
+
+import com.example.keycloak.config.RateLimitProperties;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.ConfigurationBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rate limit policy đã compile từ RateLimitProperties.Policy
+ *
+ * - Path patterns compile thành exact / prefix match (không dùng AntPathMatcher per request)
+ * - Match trên path đã chuẩn hoá như Spring MVC (requestPath): "/a/b/", "/a/b;jsessionid=x"
+ *   hay "/a/%62" vào cùng handler với "/a/b" nên cũng phải khớp cùng policy
+ * - HTTP methods compile thành bitmask
+ * - Mỗi policy có RateLimiter riêng: Bucket4j (bucket theo (policy, key))
+ *   hoặc sliding-window counter
+ */
+@Slf4j
+public final class RateLimitPolicy {
+
+    static final int METHOD_GET = 1;
+    static final int METHOD_POST = 1 << 1;
+    static final int METHOD_PUT = 1 << 2;
+    static final int METHOD_DELETE = 1 << 3;
+    static final int METHOD_PATCH = 1 << 4;
+    static final int METHOD_HEAD = 1 << 5;
+    static final int METHOD_OPTIONS = 1 << 6;
+    static final int METHOD_OTHER = 1 << 7;
+    static final int ALL_METHODS = 0xFF;
+
+    private final String name;
+    private final RateLimitProperties.KeyType keyType;
+    private final RateLimitProperties.AuthType authType;
+    private final int methodMask;
+    private final String[] exactPaths;
+    private final String[] prefixPaths;
+    private final RateLimiter limiter;
+
+    private RateLimitPolicy(String name, RateLimitProperties.KeyType keyType, RateLimitProperties.AuthType authType,
+                            int methodMask, String[] exactPaths, String[] prefixPaths, RateLimiter limiter) {
+        this.name = name;
+        this.keyType = keyType;
+        this.authType = authType;
+        this.methodMask = methodMask;
+        this.exactPaths = exactPaths;
+        this.prefixPaths = prefixPaths;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Compile policy từ config
+     *
+     * @throws IllegalStateException nếu config không hợp lệ (fail fast lúc startup)
+     */
+    public static RateLimitPolicy compile(RateLimitProperties.Policy policy, BucketStoreFactory storeFactory) {
+        String name = policy.getName();
+        if (name == null || name.isBlank()) {
+            throw new IllegalStateException("Rate limit policy name is required");
+        }
+        if (policy.getPaths().isEmpty()) {
+            throw new IllegalStateException("Rate limit policy '" + name + "' has no paths");
+        }
+        if (policy.getLimits().isEmpty()) {
+            throw new IllegalStateException("Rate limit policy '" + name + "' has no limits");
+        }
+
+        int methodMask = 0;
+        for (String method : policy.getMethods()) {
+            int bit = methodBit(method.trim().toUpperCase(Locale.ROOT));
+            if (bit == METHOD_OTHER) {
+                throw new IllegalStateException("Rate limit policy '" + name + "' has unknown method " + method);
+            }
+            methodMask |= bit;
+        }
+        if (methodMask == 0) {
+            methodMask = ALL_METHODS;
+        }
+
+        List<String> exact = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String pattern : policy.getPaths()) {
+            String path = pattern.trim();
+            if (!path.startsWith("/")) {
+                throw new IllegalStateException("Rate limit policy '" + name + "' path must start with /: " + path);
+            }
+            if (path.endsWith("/**")) {
+                // "/a/b/**" khớp "/a/b" và mọi path bên dưới "/a/b/"
+                String base = path.substring(0, path.length() - 3);
+                if (base.contains("*")) {
+                    throw new IllegalStateException("Unsupported path pattern in policy '" + name + "': " + path);
+                }
+                prefixes.add(base + "/");
+                if (!base.isEmpty()) {
+                    exact.add(base);
+                }
+            } else if (path.contains("*")) {
+                throw new IllegalStateException("Unsupported path pattern in policy '" + name + "': " + path);
+            } else {
+                exact.add(path);
+            }
+        }
+
+        for (RateLimitProperties.Limit limit : policy.getLimits()) {
+            if (limit.getCapacity() <= 0 || limit.getPeriod() == null || limit.getPeriod().isZero()) {
+                throw new IllegalStateException("Rate limit policy '" + name + "' has an invalid limit");
+            }
+        }
+
+        return new RateLimitPolicy(name, policy.getKey(), policy.getAuth(), methodMask,
+                exact.toArray(new String[0]), prefixes.toArray(new String[0]),
+                createLimiter(policy, storeFactory));
+    }
+
+    private static RateLimiter createLimiter(RateLimitProperties.Policy policy, BucketStoreFactory storeFactory) {
+        String name = policy.getName();
+        if (policy.getEngine() == RateLimitProperties.Engine.SLIDING_WINDOW) {
+            if (policy.getLimits().size() != 1 || policy.getLimits().get(0).getRefillTokens() != null) {
+                throw new IllegalStateException("Rate limit policy '" + name
+                        + "': sliding-window engine supports exactly one limit without refill-tokens");
+            }
+            RateLimitProperties.Limit limit = policy.getLimits().get(0);
+            try {
+                return new SlidingWindowRateLimiter(name, Math.toIntExact(limit.getCapacity()),
+                        limit.getPeriod(), policy.getSlots());
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                throw new IllegalStateException("Rate limit policy '" + name + "': " + e.getMessage(), e);
+            }
+        }
+
+        ConfigurationBuilder configuration = BucketConfiguration.builder();
+        for (RateLimitProperties.Limit limit : policy.getLimits()) {
+            long refillTokens = limit.getRefillTokens() != null ? limit.getRefillTokens() : limit.getCapacity();
+            configuration.addLimit(Bandwidth.builder()
+                    .capacity(limit.getCapacity())
+                    .refillGreedy(refillTokens, limit.getPeriod())
+                    .build());
+        }
+        return new BucketRateLimiter(storeFactory.create(name, configuration.build()));
+    }
+
+    /**
+     * Bit của HTTP method (switch trên String, không cấp phát)
+     */
+    static int methodBit(String method) {
+        switch (method) {
+            case "GET":
+                return METHOD_GET;
+            case "POST":
+                return METHOD_POST;
+            case "PUT":
+                return METHOD_PUT;
+            case "DELETE":
+                return METHOD_DELETE;
+            case "PATCH":
+                return METHOD_PATCH;
+            case "HEAD":
+                return METHOD_HEAD;
+            case "OPTIONS":
+                return METHOD_OPTIONS;
+            default:
+                return METHOD_OTHER;
+        }
+    }
+
+    /**
+     * Path của request trong application: đã URL-decode, bỏ path parameters (";jsessionid=...")
+     * và "//" - cùng path mà Spring MVC dùng để chọn handler
+     */
+    public static String requestPath(HttpServletRequest request) {
+        return UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+    }
+
+    /**
+     * Request có thuộc policy này không
+     *
+     * @param methodBit     kết quả methodBit(request.getMethod())
+     * @param path          kết quả requestPath(request)
+     * @param authenticated request đã authenticated chưa
+     */
+    public boolean matches(int methodBit, String path, boolean authenticated) {
+        if ((methodMask & methodBit) == 0) {
+            return false;
+        }
+        if (authType == RateLimitProperties.AuthType.AUTHENTICATED && !authenticated
+                || authType == RateLimitProperties.AuthType.ANONYMOUS && authenticated) {
+            return false;
+        }
+        // Spring MVC khớp "/a/b/" với handler "/a/b" (trailing slash match)
+        int length = path.length();
+        if (length > 1 && path.charAt(length - 1) == '/') {
+            length--;
+        }
+        for (String exact : exactPaths) {
+            if (exact.length() == length && path.startsWith(exact)) {
+                return true;
+            }
+        }
+        for (String prefix : prefixPaths) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consume một permit của key
+     *
+     * Backend phân tán không truy cập được: fail open (log để alert) thay vì chặn toàn bộ traffic
+     *
+     * @return 0 nếu được phép; ngược lại số nanoseconds tới khi có permit
+     */
+    public long tryConsume(String key) {
+        try {
+            return limiter.tryAcquire(key);
+        } catch (RuntimeException e) {
+            log.error("RATE_LIMIT_BACKEND_ERROR | policy={} | error={}", name, e.toString());
+            return 0;
+        }
+    }
+
+    /**
+     * Policy có thể áp dụng ở EdgeSheddingValve (trước servlet dispatch):
+     * key theo IP và không phụ thuộc trạng thái authenticated
+     */
+    public boolean isEdgeEligible() {
+        return keyType == RateLimitProperties.KeyType.IP && authType == RateLimitProperties.AuthType.ANY;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RateLimitProperties.KeyType getKeyType() {
+        return keyType;
+    }
+
+    public RateLimiter getLimiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.keycloak.filter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Engine rate limiting của một policy
+ *
+ * - BucketRateLimiter: Bucket4j token bucket, chính xác theo từng key (login, MFA)
+ * - SlidingWindowRateLimiter: sliding-window counter trên mảng primitive cố định,
+ *   bộ nhớ không phụ thuộc số IP (tier per-IP thô)
+ */
+public interface RateLimiter {
+
+    /**
+     * Consume một permit cho key
+     *
+     * @return 0 nếu được phép; ngược lại số nanoseconds tới khi có permit (dùng cho Retry-After)
+     */
+    long tryAcquire(String key);
+
+    void bindMetrics(MeterRegistry registry);
+}
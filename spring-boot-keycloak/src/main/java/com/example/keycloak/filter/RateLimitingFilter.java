@@ -1,45 +1,67 @@
 package com.example.keycloak.filter;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
+import com.example.keycloak.config.RateLimitProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.annotation.Order;
-import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.security.Principal;
+import java.util.Arrays;
 
 /**
  * Rate Limiting Filter sử dụng Bucket4j
  * 
  * Bank-Level Security:
- * - Giới hạn 100 requests/phút cho mỗi IP
- * - Giới hạn 10 requests/phút cho login endpoints
- * - Giới hạn 20 requests/phút cho mỗi user đã authenticated
+ * - Policy khai báo trong application.yml (security.rate-limit.policies):
+ *   theo path pattern, HTTP method, auth type, với nhiều bandwidth mỗi policy
+ * - Policies compile một lần lúc startup; mỗi request chỉ so sánh bitmask + prefix
+ * - Bucket riêng cho mỗi (policy, key) - key là IP hoặc user
+ * - Backend local (mỗi instance) hoặc jcache (limit chung cho cả cluster)
+ * - 429 kèm Retry-After theo thời gian refill của bucket
+ * - Bucket idle hết hạn sau khi refill đầy, có giới hạn cứng số buckets
+ *   (IP xoay vòng / X-Forwarded-For giả mạo không làm rò rỉ bộ nhớ)
  */
 @Slf4j
 @Component
 @Order(1)
+@RequiredArgsConstructor
 public class RateLimitingFilter extends OncePerRequestFilter {
 
-    // Bucket cho mỗi IP address
-    private final Map<String, Bucket> ipBuckets = new ConcurrentHashMap<>();
-    
-    // Bucket cho mỗi user (sau khi authenticated)
-    private final Map<String, Bucket> userBuckets = new ConcurrentHashMap<>();
+    private final ClientIpResolver clientIpResolver;
+    private final MeterRegistry meterRegistry;
+    private final RateLimitProperties properties;
+    private final BucketStoreFactory bucketStoreFactory;
+
+    private RateLimitPolicy[] policies = new RateLimitPolicy[0];
+    private RateLimitPolicy[] edgePolicies = new RateLimitPolicy[0];
     
-    // Rate limits
-    private static final int IP_RATE_LIMIT = 100; // requests per minute
-    private static final int LOGIN_RATE_LIMIT = 10; // requests per minute
-    private static final int USER_RATE_LIMIT = 20; // requests per minute
+    @PostConstruct
+    public void init() {
+        policies = properties.getPolicies().stream()
+                .map(policy -> RateLimitPolicy.compile(policy, bucketStoreFactory))
+                .toArray(RateLimitPolicy[]::new);
+        edgePolicies = Arrays.stream(policies)
+                .filter(RateLimitPolicy::isEdgeEligible)
+                .toArray(RateLimitPolicy[]::new);
+        for (RateLimitPolicy policy : policies) {
+            policy.getLimiter().bindMetrics(meterRegistry);
+        }
+        if (policies.length == 0) {
+            log.warn("No rate limit policies configured - rate limiting is disabled");
+        } else {
+            log.info("Rate limit policies loaded (backend={}): {}", properties.getBackend(),
+                    properties.getPolicies().stream().map(RateLimitProperties.Policy::getName).toList());
+        }
+    }
     
     @Override
     protected void doFilterInternal(HttpServletRequest request, 
@@ -47,74 +69,68 @@ public class RateLimitingFilter extends OncePerRequestFilter {
                                    FilterChain filterChain) 
             throws ServletException, IOException {
         
-        String clientIp = getClientIpAddress(request);
-        String path = request.getRequestURI();
-        boolean isLoginEndpoint = path.contains("/api/auth/login");
+        int methodBit = RateLimitPolicy.methodBit(request.getMethod());
+        String path = RateLimitPolicy.requestPath(request);
+        String username = getUsername(request);
+        // Policies theo IP đã được consume ở EdgeSheddingValve
+        boolean edgeChecked = request.getAttribute(EdgeSheddingValve.CHECKED_ATTRIBUTE) != null;
         
-        // Kiểm tra rate limit cho IP
-        Bucket ipBucket = getIpBucket(clientIp, isLoginEndpoint);
+        // IP đã được resolve bởi ClientIpResolutionFilter; chỉ chuyển sang String khi cần
+        String clientIp = null;
         
-        if (!ipBucket.tryConsume(1)) {
-            log.warn("RATE_LIMIT_EXCEEDED | ip={} | path={} | limit={}/min", 
-                    clientIp, path, isLoginEndpoint ? LOGIN_RATE_LIMIT : IP_RATE_LIMIT);
+        for (RateLimitPolicy policy : policies) {
+            if (edgeChecked && policy.isEdgeEligible()
+                    || !policy.matches(methodBit, path, username != null)) {
+                continue;
+            }
             
-            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
-            response.setContentType("application/json");
-            response.getWriter().write(
-                String.format(
-                    "{\"error\":\"Rate limit exceeded\",\"message\":\"Too many requests. Please try again later.\",\"retryAfter\":60}"
-                )
-            );
-            return;
-        }
-        
-        // Kiểm tra rate limit cho user (nếu đã authenticated)
-        String username = (String) request.getAttribute("username");
-        if (username != null) {
-            Bucket userBucket = getUserBucket(username);
-            if (!userBucket.tryConsume(1)) {
-                log.warn("USER_RATE_LIMIT_EXCEEDED | user={} | ip={} | path={}", 
-                        username, clientIp, path);
-                
-                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
-                response.setContentType("application/json");
-                response.getWriter().write(
-                    "{\"error\":\"User rate limit exceeded\",\"message\":\"Too many requests for this user.\",\"retryAfter\":60}"
-                );
+            if (policy.getKeyType() == RateLimitProperties.KeyType.USER) {
+                if (username == null) {
+                    continue;
+                }
+                long nanosToWait = policy.tryConsume(username);
+                if (nanosToWait == 0) {
+                    continue;
+                }
+                log.warn("USER_RATE_LIMIT_EXCEEDED | user={} | policy={} | path={}", 
+                        username, policy.getName(), path);
+                RejectionResponses.tooManyRequests(response, true, nanosToWait);
                 return;
             }
+            
+            if (clientIp == null) {
+                IpAddress clientAddress = clientIpResolver.resolve(request);
+                clientIp = clientAddress != null ? clientAddress.toString() : "unknown";
+            }
+            long nanosToWait = policy.tryConsume(clientIp);
+            if (nanosToWait == 0) {
+                continue;
+            }
+            log.warn("RATE_LIMIT_EXCEEDED | ip={} | policy={} | path={}", 
+                    clientIp, policy.getName(), path);
+            RejectionResponses.tooManyRequests(response, false, nanosToWait);
+            return;
         }
         
         filterChain.doFilter(request, response);
     }
     
-    private Bucket getIpBucket(String ip, boolean isLoginEndpoint) {
-        return ipBuckets.computeIfAbsent(ip, k -> {
-            int limit = isLoginEndpoint ? LOGIN_RATE_LIMIT : IP_RATE_LIMIT;
-            Bandwidth limitBandwidth = Bandwidth.simple(limit, Duration.ofMinutes(1));
-            return Bucket.builder().addLimit(limitBandwidth).build();
-        });
-    }
-    
-    private Bucket getUserBucket(String username) {
-        return userBuckets.computeIfAbsent(username, k -> {
-            Bandwidth limitBandwidth = Bandwidth.simple(USER_RATE_LIMIT, Duration.ofMinutes(1));
-            return Bucket.builder().addLimit(limitBandwidth).build();
-        });
+    /**
+     * Policies theo IP, không phụ thuộc authenticated - áp dụng được ở EdgeSheddingValve
+     */
+    public RateLimitPolicy[] getEdgePolicies() {
+        return edgePolicies;
     }
     
-    private String getClientIpAddress(HttpServletRequest request) {
-        String xForwardedFor = request.getHeader("X-Forwarded-For");
-        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-            return xForwardedFor.split(",")[0].trim();
+    /**
+     * User của request (nếu đã authenticated)
+     */
+    private String getUsername(HttpServletRequest request) {
+        Object username = request.getAttribute("username");
+        if (username instanceof String) {
+            return (String) username;
         }
-        
-        String xRealIp = request.getHeader("X-Real-IP");
-        if (xRealIp != null && !xRealIp.isEmpty()) {
-            return xRealIp;
-        }
-        
-        return request.getRemoteAddr();
+        Principal principal = request.getUserPrincipal();
+        return principal != null ? principal.getName() : null;
     }
 }
-
@@ -0,0 +1,74 @@
+package com.example.keycloak.filter;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response 403/429 dùng chung cho EdgeSheddingValve, IpFilter và RateLimitingFilter
+ *
+ * - Body JSON encode sẵn thành byte[] khi class load: không getWriter(), không String.format
+ * - 429 kèm header Retry-After (giây, làm tròn lên) tính từ thời gian refill của bucket
+ */
+final class RejectionResponses {
+
+    static final byte[] BLACKLISTED = utf8(
+            "{\"error\":\"Access denied\",\"message\":\"Your IP address has been blocked.\"}");
+    static final byte[] NOT_WHITELISTED = utf8(
+            "{\"error\":\"Access denied\",\"message\":\"Your IP address is not authorized.\"}");
+
+    private static final byte[] IP_RATE_LIMITED = utf8(
+            "{\"error\":\"Rate limit exceeded\",\"message\":\"Too many requests. Please try again later.\",\"retryAfter\":");
+    private static final byte[] USER_RATE_LIMITED = utf8(
+            "{\"error\":\"User rate limit exceeded\",\"message\":\"Too many requests for this user.\",\"retryAfter\":");
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    private RejectionResponses() {
+    }
+
+    static void forbidden(HttpServletResponse response, IpFilter.Verdict verdict) throws IOException {
+        byte[] body = verdict == IpFilter.Verdict.BLACKLISTED ? BLACKLISTED : NOT_WHITELISTED;
+        write(response, HttpStatus.FORBIDDEN.value(), body);
+    }
+
+    /**
+     * @param nanosToWait thời gian tới khi có permit tiếp theo (RateLimitPolicy.tryConsume)
+     */
+    static void tooManyRequests(HttpServletResponse response, boolean userLimit, long nanosToWait)
+            throws IOException {
+        long retryAfter = retryAfterSeconds(nanosToWait);
+        String seconds = Long.toString(retryAfter);
+        byte[] prefix = userLimit ? USER_RATE_LIMITED : IP_RATE_LIMITED;
+
+        byte[] body = new byte[prefix.length + seconds.length() + 1];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        for (int i = 0; i < seconds.length(); i++) {
+            body[prefix.length + i] = (byte) seconds.charAt(i);
+        }
+        body[body.length - 1] = '}';
+
+        response.setHeader(HttpHeaders.RETRY_AFTER, seconds);
+        write(response, HttpStatus.TOO_MANY_REQUESTS.value(), body);
+    }
+
+    static long retryAfterSeconds(long nanosToWait) {
+        long seconds = (nanosToWait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return Math.max(1, seconds);
+    }
+
+    private static void write(HttpServletResponse response, int status, byte[] body) throws IOException {
+        response.setStatus(status);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
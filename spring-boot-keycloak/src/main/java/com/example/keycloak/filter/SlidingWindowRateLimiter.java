@@ -0,0 +1,154 @@
+package com.example.keycloak.filter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sliding-window counter lock-free trên mảng primitive cố định
+ *
+ * - Key được hash (seed ngẫu nhiên mỗi process) vào một trong N slots; mỗi slot là
+ *   một long: [window index 32 bit | count window trước 16 bit | count window hiện tại 16 bit]
+ * - Ước lượng sliding window: current + previous * (phần còn lại của window trước)
+ * - Cập nhật bằng CAS trên từng slot: không lock, không cấp phát per request,
+ *   contention chỉ xảy ra giữa các key cùng slot
+ * - Bộ nhớ cố định 8 bytes/slot bất kể số IP (Bucket4j: ~320 bytes/key)
+ *
+ * Đánh đổi: các key trùng slot dùng chung counter (bị limit sớm hơn, không bao giờ muộn hơn),
+ * nên chỉ dùng cho tier thô (per-IP); tier chính xác (login, MFA) dùng Bucket4j.
+ */
+public final class SlidingWindowRateLimiter implements RateLimiter {
+
+    static final int MAX_LIMIT = 0xFFFF;
+    static final int MAX_SLOTS = 1 << 26;
+    static final Duration MAX_PERIOD = Duration.ofDays(1);
+
+    private static final long COUNT_MASK = 0xFFFF;
+
+    private final String name;
+    private final int limit;
+    private final long periodNanos;
+    private final int mask;
+    private final long seed;
+    private final AtomicLongArray slots;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param limit  số request tối đa mỗi period (≤ 65535)
+     * @param period độ dài window (≤ 1 ngày)
+     * @param slots  số slots, làm tròn lên luỹ thừa của 2
+     */
+    public SlidingWindowRateLimiter(String name, int limit, Duration period, int slots) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Sliding window limit must be in 1.." + MAX_LIMIT + ": " + limit);
+        }
+        if (period.isNegative() || period.isZero() || period.compareTo(MAX_PERIOD) > 0) {
+            throw new IllegalArgumentException("Sliding window period must be in (0, 1d]: " + period);
+        }
+        if (slots <= 0 || slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Sliding window slots must be in 1.." + MAX_SLOTS + ": " + slots);
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.limit = limit;
+        this.periodNanos = period.toNanos();
+        this.mask = size - 1;
+        this.seed = new SecureRandom().nextLong();
+        this.slots = new AtomicLongArray(size);
+    }
+
+    @Override
+    public long tryAcquire(String key) {
+        return tryAcquire(slot(key), System.nanoTime());
+    }
+
+    long tryAcquire(int index, long nowNanos) {
+        // System.nanoTime() có thể âm: floorDiv / floorMod để remaining luôn trong (0, period]
+        int window = (int) Math.floorDiv(nowNanos, periodNanos);
+        // Trọng số của window trước = phần chưa trôi qua của sliding window
+        long remaining = periodNanos - Math.floorMod(nowNanos, periodNanos);
+
+        while (true) {
+            long state = slots.get(index);
+            int stateWindow = (int) (state >>> 32);
+            long previous = (state >>> 16) & COUNT_MASK;
+            long current = state & COUNT_MASK;
+
+            if (stateWindow != window) {
+                previous = stateWindow == window - 1 ? current : 0;
+                current = 0;
+            }
+            // previous ≤ 65535, remaining ≤ 1 ngày (8.64e13 ns): tích < 2^63, không tràn long
+            long estimate = current + previous * remaining / periodNanos;
+            if (estimate >= limit) {
+                rejected.increment();
+                return nanosToWait(previous, current, remaining);
+            }
+
+            long next = ((long) window << 32) | (previous << 16) | (current + 1);
+            if (slots.compareAndSet(index, state, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Thời gian tới khi ước lượng sliding window xuống dưới limit (giả sử không có request mới)
+     */
+    private long nanosToWait(long previous, long current, long remaining) {
+        if (current < limit) {
+            // Chờ phần đóng góp của window trước giảm đủ: current + previous * (remaining - t) / period < limit
+            return Math.max(1, remaining - (limit - current) * periodNanos / previous);
+        }
+        // Hết window hiện tại, rồi chờ current (thành window trước) giảm xuống dưới limit
+        return remaining + Math.max(1, periodNanos - limit * periodNanos / current);
+    }
+
+    /**
+     * Seeded 64-bit hash (FNV-1a + fmix64) - key cố tình chọn không đoán được slot của key khác
+     */
+    int slot(String key) {
+        long h = seed ^ 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    public int getSlotCount() {
+        return mask + 1;
+    }
+
+    public long estimatedBytes() {
+        return (long) getSlotCount() * Long.BYTES;
+    }
+
+    /**
+     * Export: ratelimit.buckets.bytes (cố định) + ratelimit.rejected
+     */
+    @Override
+    public void bindMetrics(MeterRegistry registry) {
+        Gauge.builder("ratelimit.buckets.bytes", this, SlidingWindowRateLimiter::estimatedBytes)
+                .tag("store", name)
+                .baseUnit("bytes")
+                .description("Estimated heap used by rate limit buckets")
+                .register(registry);
+        FunctionCounter.builder("ratelimit.rejected", rejected, LongAdder::sum)
+                .tag("store", name)
+                .description("Requests rejected by the sliding window limiter")
+                .register(registry);
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.keycloak.provider;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache các dòng CustomUser của một component, dùng chung giữa các Keycloak session
+ *
+ * Performance:
+ * - Index theo id, username và email: user load qua một key được đặt vào cả ba index
+ * - TTL cho user tồn tại, TTL ngắn hơn cho user không tồn tại (negative caching)
+ * - Load đồng thời cùng key chỉ chạy một query
+ * - Trả về bản copy: CustomUserAdapter thay đổi user không ảnh hưởng entry trong cache
+ * - Stats qua JMX (CustomUserCacheMXBean)
+ *
+ * Thay đổi trong database (password, enabled, ...) có hiệu lực sau tối đa TTL.
+ */
+public class CustomUserCache implements CustomUserCacheMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomUserCache.class);
+
+    private static final char ID_KEY = 'i';
+    private static final char USERNAME_KEY = 'u';
+    private static final char EMAIL_KEY = 'e';
+
+    private final CustomUserRepository repository;
+    private final Cache<String, CachedUser> cache;
+    private final boolean enabled;
+    private ObjectName objectName;
+
+    /**
+     * @param ttlSeconds         TTL của user tồn tại (0 = tắt cache)
+     * @param negativeTtlSeconds TTL của kết quả "không tồn tại"
+     */
+    public CustomUserCache(CustomUserRepository repository, long ttlSeconds, long negativeTtlSeconds, long maxSize) {
+        this.repository = repository;
+        this.enabled = ttlSeconds > 0;
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        long negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, CachedUser>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedUser value, long currentTime) {
+                        return value.user != null ? ttlNanos : negativeTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedUser value, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedUser value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public CustomUser findById(String id) {
+        return lookup(ID_KEY + id, () -> repository.findById(id));
+    }
+
+    public CustomUser findByUsername(String username) {
+        return lookup(USERNAME_KEY + username, () -> repository.findByUsername(username));
+    }
+
+    public CustomUser findByEmail(String email) {
+        return lookup(EMAIL_KEY + email, () -> repository.findByEmail(email));
+    }
+
+    private CustomUser lookup(String key, Supplier<CustomUser> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        boolean[] loaded = new boolean[1];
+        CachedUser cached = cache.get(key, k -> {
+            loaded[0] = true;
+            return new CachedUser(loader.get());
+        });
+        if (loaded[0] && cached.user != null) {
+            index(key, cached);
+        }
+        return cached.user != null ? copy(cached.user) : null;
+    }
+
+    /**
+     * Đặt user vừa load vào các index còn lại (không ghi đè key vừa load)
+     */
+    private void index(String loadedKey, CachedUser cached) {
+        CustomUser user = cached.user;
+        putIfOtherKey(loadedKey, user.getId() != null ? ID_KEY + user.getId() : null, cached);
+        putIfOtherKey(loadedKey, user.getUsername() != null ? USERNAME_KEY + user.getUsername() : null, cached);
+        putIfOtherKey(loadedKey, user.getEmail() != null ? EMAIL_KEY + user.getEmail() : null, cached);
+    }
+
+    private void putIfOtherKey(String loadedKey, String key, CachedUser cached) {
+        if (key != null && !key.equals(loadedKey)) {
+            cache.put(key, cached);
+        }
+    }
+
+    private static CustomUser copy(CustomUser user) {
+        return new CustomUser(user.getId(), user.getUsername(), user.getEmail(), user.getPassword(),
+                user.getFirstName(), user.getLastName(), user.isEnabled());
+    }
+
+    /**
+     * Xoá mọi index của user (sau khi user thay đổi)
+     */
+    public void invalidate(CustomUser user) {
+        if (user.getId() != null) {
+            cache.invalidate(ID_KEY + user.getId());
+        }
+        if (user.getUsername() != null) {
+            cache.invalidate(USERNAME_KEY + user.getUsername());
+        }
+        if (user.getEmail() != null) {
+            cache.invalidate(EMAIL_KEY + user.getEmail());
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return cache.stats().loadFailureCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Đăng ký MBean com.example.keycloak:type=CustomUserCache,component=...
+     */
+    public void registerMBean(String componentId) {
+        try {
+            objectName = new ObjectName("com.example.keycloak:type=CustomUserCache,component="
+                    + ObjectName.quote(componentId));
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register user cache MBean for component {}: {}", componentId, e.getMessage());
+            objectName = null;
+        }
+    }
+
+    /**
+     * Xoá cache và huỷ đăng ký MBean (component bị update / xoá, factory đóng)
+     */
+    public void close() {
+        cache.invalidateAll();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.debug("Could not unregister user cache MBean {}: {}", objectName, e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    private static final class CachedUser {
+        private final CustomUser user;
+
+        private CachedUser(CustomUser user) {
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.keycloak.provider;
+
+/**
+ * JMX view của CustomUserCache (com.example.keycloak:type=CustomUserCache,component=...)
+ */
+public interface CustomUserCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadFailureCount();
+
+    long getEvictionCount();
+
+    long getSize();
+
+    void invalidateAll();
+}
@@ -1,23 +1,51 @@
 package com.example.keycloak.provider;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Repository để truy vấn users từ custom database
+ * 
+ * Mỗi query mượn connection từ pool của factory và trả lại ngay sau khi xong;
+ * search trả về Stream đọc dần từ ResultSet (không giữ toàn bộ kết quả trong heap)
  */
 public class CustomUserRepository {
     
-    private final java.sql.Connection connection;
+    private static final String SELECT_USERS =
+            "SELECT id, username, email, password, first_name, last_name, enabled FROM users";
+    private static final String COUNT_USERS = "SELECT COUNT(*) FROM users";
+    private static final String SEARCH_CONDITION =
+            " (LOWER(username) LIKE ? OR LOWER(email) LIKE ? OR LOWER(first_name) LIKE ? OR LOWER(last_name) LIKE ?)";
+    private static final String SEARCH_PREDICATE = " WHERE" + SEARCH_CONDITION;
+    private static final String ORDER_BY = " ORDER BY username, id";
+    private static final int IN_CHUNK_SIZE = 500;
+    private static final String ATTRIBUTE_MEMBER_IDS =
+            "SELECT user_id FROM user_attributes WHERE attribute_name = ? AND attribute_value = ?";
+    private static final String GROUP_MEMBER_IDS = "SELECT user_id FROM user_groups WHERE group_id = ?";
     
-    public CustomUserRepository(java.sql.Connection connection) {
-        this.connection = connection;
+    private final javax.sql.DataSource dataSource;
+    private final int fetchSize;
+    
+    public CustomUserRepository(javax.sql.DataSource dataSource, int fetchSize) {
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
     }
     
     public CustomUser findByUsername(String username) {
         String sql = "SELECT id, username, email, password, first_name, last_name, enabled FROM users WHERE username = ?";
-        try (java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (java.sql.Connection connection = dataSource.getConnection();
+             java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setString(1, username);
             try (java.sql.ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -32,7 +60,8 @@ public class CustomUserRepository {
     
     public CustomUser findByEmail(String email) {
         String sql = "SELECT id, username, email, password, first_name, last_name, enabled FROM users WHERE email = ?";
-        try (java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (java.sql.Connection connection = dataSource.getConnection();
+             java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setString(1, email);
             try (java.sql.ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -47,7 +76,8 @@ public class CustomUserRepository {
     
     public CustomUser findById(String id) {
         String sql = "SELECT id, username, email, password, first_name, last_name, enabled FROM users WHERE id = ?";
-        try (java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (java.sql.Connection connection = dataSource.getConnection();
+             java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setString(1, id);
             try (java.sql.ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -60,41 +90,391 @@ public class CustomUserRepository {
         return null;
     }
     
-    public List<CustomUser> searchUsers(String search) {
-        String sql = "SELECT id, username, email, password, first_name, last_name, enabled FROM users WHERE " +
-                     "LOWER(username) LIKE ? OR LOWER(email) LIKE ? OR LOWER(first_name) LIKE ? OR LOWER(last_name) LIKE ?";
-        List<CustomUser> result = new ArrayList<>();
-        try (java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            String query = "%" + (search == null ? "" : search.toLowerCase()) + "%";
-            pstmt.setString(1, query);
-            pstmt.setString(2, query);
-            pstmt.setString(3, query);
-            pstmt.setString(4, query);
-            
-            try (java.sql.ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    result.add(mapUser(rs));
+    /**
+     * Search users dạng stream, sắp xếp theo (username, id); LIMIT/OFFSET thực hiện trong SQL
+     * 
+     * Stream đọc trực tiếp từ ResultSet (mỗi lần fetchSize dòng), map từng dòng khi được consume;
+     * connection được mượn khi đọc dòng đầu tiên và trả về pool khi stream đọc hết hoặc bị close.
+     * Caller phải close stream nếu không đọc hết (try-with-resources).
+     * 
+     * @param search      chuỗi tìm trong username / email / first name / last name (rỗng hoặc "*" = tất cả)
+     * @param firstResult offset (null hoặc âm = 0)
+     * @param maxResults  số dòng tối đa (null hoặc âm = không giới hạn)
+     */
+    public Stream<CustomUser> streamUsers(String search, Integer firstResult, Integer maxResults) {
+        String pattern = searchPattern(search);
+        StringBuilder sql = new StringBuilder(SELECT_USERS);
+        if (pattern != null) {
+            sql.append(SEARCH_PREDICATE);
+        }
+        sql.append(ORDER_BY);
+        appendLimit(sql, firstResult, maxResults);
+        
+        return openStream(sql.toString(), "Error searching users with query: " + search, pstmt -> {
+            int index = bindSearch(pstmt, 1, pattern);
+            bindLimit(pstmt, index, firstResult, maxResults);
+        });
+    }
+    
+    /**
+     * Keyset pagination: các users sau (afterUsername, afterId), không cần OFFSET
+     * nên chi phí không tăng theo độ sâu của trang (cần index trên username)
+     */
+    public Stream<CustomUser> streamUsersAfter(String search, String afterUsername, String afterId,
+                                               Integer maxResults) {
+        String pattern = searchPattern(search);
+        StringBuilder sql = new StringBuilder(SELECT_USERS)
+                .append(" WHERE username >= ? AND (username > ? OR id > ?)");
+        if (pattern != null) {
+            sql.append(" AND").append(SEARCH_CONDITION);
+        }
+        sql.append(ORDER_BY);
+        appendLimit(sql, null, maxResults);
+        
+        return openStream(sql.toString(), "Error searching users with query: " + search, pstmt -> {
+            pstmt.setString(1, afterUsername);
+            pstmt.setString(2, afterUsername);
+            pstmt.setString(3, afterId);
+            int index = bindSearch(pstmt, 4, pattern);
+            bindLimit(pstmt, index, null, maxResults);
+        });
+    }
+    
+    /**
+     * Users có updated_at sau thời điểm since (refresh UserSearchIndex)
+     */
+    public Stream<CustomUser> streamUsersUpdatedSince(java.sql.Timestamp since) {
+        return openStream(SELECT_USERS + " WHERE updated_at > ?",
+                "Error fetching users updated since " + since,
+                pstmt -> pstmt.setTimestamp(1, since));
+    }
+    
+    /**
+     * Users theo danh sách ids, giữ nguyên thứ tự của ids (id không tồn tại bị bỏ qua)
+     * 
+     * Query theo từng chunk IN (...) để số bind parameters có giới hạn
+     */
+    public List<CustomUser> findByIds(List<String> ids) {
+        Map<String, CustomUser> found = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + IN_CHUNK_SIZE));
+            String sql = SELECT_USERS + " WHERE id IN ("
+                    + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (java.sql.Connection connection = dataSource.getConnection();
+                 java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                try (java.sql.ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        CustomUser user = mapUser(rs);
+                        found.put(user.getId(), user);
+                    }
                 }
+            } catch (java.sql.SQLException e) {
+                throw new RuntimeException("Error fetching users by ids", e);
+            }
+        }
+        List<CustomUser> result = new ArrayList<>(found.size());
+        for (String id : ids) {
+            CustomUser user = found.get(id);
+            if (user != null) {
+                result.add(user);
             }
-        } catch (java.sql.SQLException e) {
-            throw new RuntimeException("Error searching users with query: " + search, e);
         }
         return result;
     }
     
-    public int count() {
-        String sql = "SELECT COUNT(*) FROM users";
-        try (java.sql.Statement stmt = connection.createStatement();
-             java.sql.ResultSet rs = stmt.executeQuery(sql)) {
-            if (rs.next()) {
-                return rs.getInt(1);
+    /**
+     * Users có attribute name = value, sắp xếp theo id
+     * 
+     * Ids được đọc từ index (attribute_name, attribute_value, user_id) theo từng trang keyset, mỗi trang
+     * fetch users bằng một query IN (...); stream đọc dần, không giữ connection giữa các trang
+     */
+    public Stream<CustomUser> streamUsersByAttribute(String name, String value) {
+        return streamByIdPages(ATTRIBUTE_MEMBER_IDS, "Error searching users by attribute: " + name,
+                pstmt -> {
+                    pstmt.setString(1, name);
+                    pstmt.setString(2, value);
+                    return 3;
+                }, null, null);
+    }
+    
+    /**
+     * Members của group, sắp xếp theo id; OFFSET / LIMIT áp dụng trên primary key (group_id, user_id)
+     * 
+     * @param firstResult offset (null hoặc âm = 0)
+     * @param maxResults  số dòng tối đa (null hoặc âm = không giới hạn)
+     */
+    public Stream<CustomUser> streamGroupMembers(String groupId, Integer firstResult, Integer maxResults) {
+        return streamByIdPages(GROUP_MEMBER_IDS, "Error fetching members of group: " + groupId,
+                pstmt -> {
+                    pstmt.setString(1, groupId);
+                    return 2;
+                }, firstResult, maxResults);
+    }
+    
+    private Stream<CustomUser> streamByIdPages(String idQuery, String errorMessage, IdQueryBinder binder,
+                                               Integer firstResult, Integer maxResults) {
+        IdPageIterator pages = new IdPageIterator(idQuery, errorMessage, binder,
+                firstResult == null || firstResult < 0 ? 0 : firstResult,
+                maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+                .flatMap(List::stream);
+    }
+    
+    @FunctionalInterface
+    private interface IdQueryBinder {
+        /**
+         * @return index của bind parameter kế tiếp
+         */
+        int bind(java.sql.PreparedStatement pstmt) throws java.sql.SQLException;
+    }
+    
+    /**
+     * Trang users theo ids: trang đầu dùng OFFSET, các trang sau dùng keyset (user_id > id cuối),
+     * mỗi trang tối đa IN_CHUNK_SIZE ids = một query IN (...)
+     */
+    private final class IdPageIterator implements Iterator<List<CustomUser>> {
+        
+        private final String idQuery;
+        private final String errorMessage;
+        private final IdQueryBinder binder;
+        private int offset;
+        private long remaining;
+        private String lastId;
+        private boolean exhausted;
+        
+        private IdPageIterator(String idQuery, String errorMessage, IdQueryBinder binder, int offset,
+                               long remaining) {
+            this.idQuery = idQuery;
+            this.errorMessage = errorMessage;
+            this.binder = binder;
+            this.offset = offset;
+            this.remaining = remaining;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return !exhausted && remaining > 0;
+        }
+        
+        @Override
+        public List<CustomUser> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int limit = (int) Math.min(IN_CHUNK_SIZE, remaining);
+            List<String> ids = nextIds(limit);
+            if (ids.size() < limit) {
+                exhausted = true;
+            }
+            if (!ids.isEmpty()) {
+                lastId = ids.get(ids.size() - 1);
+            }
+            remaining -= ids.size();
+            offset = 0;
+            return findByIds(ids);
+        }
+        
+        private List<String> nextIds(int limit) {
+            StringBuilder sql = new StringBuilder(idQuery);
+            if (lastId != null) {
+                sql.append(" AND user_id > ?");
+            }
+            sql.append(" ORDER BY user_id");
+            appendLimit(sql, offset, limit);
+            try (java.sql.Connection connection = dataSource.getConnection();
+                 java.sql.PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+                int index = binder.bind(pstmt);
+                if (lastId != null) {
+                    pstmt.setString(index++, lastId);
+                }
+                bindLimit(pstmt, index, offset, limit);
+                List<String> ids = new ArrayList<>(limit);
+                try (java.sql.ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString(1));
+                    }
+                }
+                return ids;
+            } catch (java.sql.SQLException e) {
+                throw new RuntimeException(errorMessage, e);
+            }
+        }
+    }
+    
+    /**
+     * Thời điểm hiện tại theo đồng hồ của database (watermark cho refresh theo updated_at)
+     */
+    public java.sql.Timestamp currentTimestamp() {
+        try (java.sql.Connection connection = dataSource.getConnection();
+             java.sql.PreparedStatement pstmt = connection.prepareStatement("SELECT CURRENT_TIMESTAMP");
+             java.sql.ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1);
+        } catch (java.sql.SQLException e) {
+            throw new RuntimeException("Error reading database timestamp", e);
+        }
+    }
+    
+    /**
+     * Số users khớp search (rỗng hoặc "*" = tất cả)
+     */
+    public int countUsers(String search) {
+        String pattern = searchPattern(search);
+        String sql = pattern == null ? COUNT_USERS : COUNT_USERS + SEARCH_PREDICATE;
+        try (java.sql.Connection connection = dataSource.getConnection();
+             java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            bindSearch(pstmt, 1, pattern);
+            try (java.sql.ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
             }
         } catch (java.sql.SQLException e) {
-            throw new RuntimeException("Error counting users", e);
+            throw new RuntimeException("Error counting users with query: " + search, e);
         }
         return 0;
     }
     
+    public int count() {
+        return countUsers(null);
+    }
+    
+    private static String searchPattern(String search) {
+        if (search == null) {
+            return null;
+        }
+        String trimmed = search.trim();
+        if (trimmed.isEmpty() || "*".equals(trimmed)) {
+            return null;
+        }
+        return "%" + trimmed.toLowerCase() + "%";
+    }
+    
+    private static int bindSearch(java.sql.PreparedStatement pstmt, int index, String pattern)
+            throws java.sql.SQLException {
+        if (pattern == null) {
+            return index;
+        }
+        for (int i = 0; i < 4; i++) {
+            pstmt.setString(index++, pattern);
+        }
+        return index;
+    }
+    
+    private static void appendLimit(StringBuilder sql, Integer firstResult, Integer maxResults) {
+        if (maxResults != null && maxResults >= 0) {
+            sql.append(" LIMIT ?");
+        }
+        if (firstResult != null && firstResult > 0) {
+            if (maxResults == null || maxResults < 0) {
+                sql.append(" LIMIT ").append(Integer.MAX_VALUE);
+            }
+            sql.append(" OFFSET ?");
+        }
+    }
+    
+    private static void bindLimit(java.sql.PreparedStatement pstmt, int index, Integer firstResult,
+                                  Integer maxResults) throws java.sql.SQLException {
+        if (maxResults != null && maxResults >= 0) {
+            pstmt.setInt(index++, maxResults);
+        }
+        if (firstResult != null && firstResult > 0) {
+            pstmt.setInt(index, firstResult);
+        }
+    }
+    
+    private Stream<CustomUser> openStream(String sql, String errorMessage, StatementBinder binder) {
+        UserCursor cursor = new UserCursor(sql, errorMessage, binder);
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+    
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(java.sql.PreparedStatement pstmt) throws java.sql.SQLException;
+    }
+    
+    /**
+     * Spliterator trên một ResultSet đang mở (forward-only, read-only)
+     * 
+     * - Query chỉ chạy khi stream bắt đầu được consume
+     * - ResultSet / statement / connection đóng ngay khi đọc hết, khi lỗi, hoặc khi stream bị close
+     * - Auto-commit tắt trong lúc đọc: PostgreSQL chỉ dùng server-side cursor (fetchSize)
+     *   bên trong transaction
+     */
+    private final class UserCursor extends Spliterators.AbstractSpliterator<CustomUser> {
+        
+        private final String sql;
+        private final String errorMessage;
+        private final StatementBinder binder;
+        
+        private java.sql.Connection connection;
+        private java.sql.PreparedStatement pstmt;
+        private java.sql.ResultSet rs;
+        private boolean done;
+        
+        private UserCursor(String sql, String errorMessage, StatementBinder binder) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.sql = sql;
+            this.errorMessage = errorMessage;
+            this.binder = binder;
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super CustomUser> action) {
+            if (done) {
+                return false;
+            }
+            CustomUser user;
+            try {
+                if (rs == null) {
+                    open();
+                }
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                user = mapUser(rs);
+            } catch (java.sql.SQLException e) {
+                close();
+                throw new RuntimeException(errorMessage, e);
+            }
+            action.accept(user);
+            return true;
+        }
+        
+        private void open() throws java.sql.SQLException {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            pstmt = connection.prepareStatement(sql,
+                    java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            binder.bind(pstmt);
+            rs = pstmt.executeQuery();
+        }
+        
+        private void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try (java.sql.Connection c = connection;
+                 java.sql.PreparedStatement p = pstmt;
+                 java.sql.ResultSet r = rs) {
+                if (c != null) {
+                    // Chỉ đọc: kết thúc transaction trước khi trả connection về pool
+                    c.rollback();
+                    c.setAutoCommit(true);
+                }
+            } catch (java.sql.SQLException e) {
+                throw new RuntimeException("Error closing user stream", e);
+            }
+        }
+    }
+    
+    
     private CustomUser mapUser(java.sql.ResultSet rs) throws java.sql.SQLException {
         return new CustomUser(
             rs.getString("id"),
@@ -106,14 +486,4 @@ public class CustomUserRepository {
             rs.getBoolean("enabled")
         );
     }
-    public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (java.sql.SQLException e) {
-            // Ignore or log
-        }
-    }
 }
-
@@ -1,10 +1,14 @@
 package com.example.keycloak.provider;
 
+import com.example.keycloak.exception.ServiceOverloadedException;
+import com.example.keycloak.service.PasswordHashingService;
+import com.example.keycloak.service.VerifiedCredentialCache;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.credential.CredentialInput;
 import org.keycloak.credential.CredentialInputValidator;
 import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.storage.StorageId;
@@ -15,7 +19,6 @@ import org.mindrot.jbcrypt.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -28,6 +31,17 @@ import java.util.stream.Stream;
  * - Password hashing với BCrypt (work factor 12)
  * - Audit logging cho tất cả authentication attempts
  * - Constant-time password comparison
+ * 
+ * Performance:
+ * - Lookup theo id / username / email đi qua CustomUserCache của factory
+ * - Search / list phân trang trong SQL (LIMIT/OFFSET, hoặc keyset khi pagingMode = keyset)
+ *   và count bằng COUNT(*): mỗi trang tốn O(page), không load cả bảng
+ * - Stream methods đọc trực tiếp từ ResultSet (fetchSize của component) và map từng dòng
+ *   thành CustomUserAdapter khi được consume: export / sync toàn bộ users không cần heap O(n)
+ * - Verified-credential cache tuỳ chọn: login lặp lại với password đúng bỏ qua BCrypt
+ * - Search index tuỳ chọn (UserSearchIndex): substring search trong bộ nhớ, chỉ fetch ids của trang
+ * - Group members / attribute search đọc ids từ index của user_groups / user_attributes
+ *   (db/custom-user-schema.sql), fetch users theo từng chunk IN (...)
  */
 public class CustomUserStorageProvider implements
         UserStorageProvider,
@@ -41,19 +55,31 @@ public class CustomUserStorageProvider implements
     private final KeycloakSession session;
     private final ComponentModel model;
     private final CustomUserRepository userRepository;
+    private final CustomUserCache userCache;
+    private final UserPageCursors pageCursors;
+    private final UserSearchIndex searchIndex;
+    private final PasswordHashingService passwordHashing;
+    private final VerifiedCredentialCache credentialCache;
 
-    private static final int BCRYPT_WORK_FACTOR = 12;
+    private static final int BCRYPT_WORK_FACTOR = PasswordHashingService.BCRYPT_WORK_FACTOR;
 
     public CustomUserStorageProvider(KeycloakSession session, ComponentModel model,
-            CustomUserRepository userRepository) {
+            CustomUserRepository userRepository, CustomUserCache userCache, UserPageCursors pageCursors,
+            UserSearchIndex searchIndex, PasswordHashingService passwordHashing,
+            VerifiedCredentialCache credentialCache) {
         this.session = session;
         this.model = model;
         this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.pageCursors = pageCursors;
+        this.searchIndex = searchIndex;
+        this.passwordHashing = passwordHashing;
+        this.credentialCache = credentialCache;
     }
 
     @Override
     public void close() {
-        userRepository.close();
+        // Connection đã trả về pool của factory sau mỗi query
     }
 
     // ========== UserLookupProvider Implementation ==========
@@ -61,7 +87,7 @@ public class CustomUserStorageProvider implements
     @Override
     public UserModel getUserById(String id, RealmModel realm) {
         String externalId = StorageId.externalId(id);
-        CustomUser user = userRepository.findByUsername(externalId);
+        CustomUser user = userCache.findById(externalId);
         if (user != null) {
             return new CustomUserAdapter(session, realm, model, user);
         }
@@ -70,7 +96,7 @@ public class CustomUserStorageProvider implements
 
     @Override
     public UserModel getUserByUsername(String username, RealmModel realm) {
-        CustomUser user = userRepository.findByUsername(username);
+        CustomUser user = userCache.findByUsername(username);
         if (user != null) {
             return new CustomUserAdapter(session, realm, model, user);
         }
@@ -79,7 +105,7 @@ public class CustomUserStorageProvider implements
 
     @Override
     public UserModel getUserByEmail(String email, RealmModel realm) {
-        CustomUser user = userRepository.findByEmail(email);
+        CustomUser user = userCache.findByEmail(email);
         if (user != null) {
             return new CustomUserAdapter(session, realm, model, user);
         }
@@ -108,7 +134,7 @@ public class CustomUserStorageProvider implements
         String clientIp = getClientIpAddress();
 
         try {
-            CustomUser customUser = userRepository.findByUsername(username);
+            CustomUser customUser = userCache.findByUsername(username);
 
             if (customUser == null) {
                 // Audit log: User not found
@@ -119,6 +145,7 @@ public class CustomUserStorageProvider implements
 
             // Check if account is enabled
             if (!customUser.isEnabled()) {
+                credentialCache.invalidate(username);
                 auditLog.warn("AUTH_FAILED | user={} | reason=ACCOUNT_DISABLED | ip={}",
                         username, clientIp);
                 return false;
@@ -128,9 +155,16 @@ public class CustomUserStorageProvider implements
             String inputPassword = credentialInput.getChallengeResponse();
             String storedHash = customUser.getPassword();
 
-            boolean isValid = verifyPassword(inputPassword, storedHash);
+            // Verify thành công gần đây với đúng stored hash này: bỏ qua BCrypt
+            if (credentialCache.isVerified(username, inputPassword, storedHash)) {
+                auditLog.info("AUTH_SUCCESS | user={} | ip={} | cached=true", username, clientIp);
+                return true;
+            }
+
+            boolean isValid = verifyPassword(inputPassword, storedHash, clientIp);
 
             if (isValid) {
+                credentialCache.recordSuccess(username, inputPassword, storedHash);
                 // Audit log: Successful authentication
                 auditLog.info("AUTH_SUCCESS | user={} | ip={}", username, clientIp);
                 return true;
@@ -141,6 +175,11 @@ public class CustomUserStorageProvider implements
                 return false;
             }
 
+        } catch (ServiceOverloadedException e) {
+            // Quá tải không phải sai password: không trả false (Keycloak sẽ báo invalid credentials
+            // và tính vào brute-force lockout), báo server error
+            auditLog.warn("AUTH_REJECTED | user={} | reason=OVERLOADED | ip={}", username, clientIp);
+            throw new ModelException("Password verification is temporarily overloaded", e);
         } catch (Exception e) {
             log.error("Error during password validation for user {}: {}", username, e.getMessage());
             auditLog.error("AUTH_ERROR | user={} | error={} | ip={}",
@@ -152,19 +191,22 @@ public class CustomUserStorageProvider implements
     /**
      * SECURITY: Verify password using BCrypt
      * BCrypt includes constant-time comparison to prevent timing attacks
+     * Runs on the factory's PasswordHashingService worker pool, queued fairly per client IP
      * 
      * @param plainPassword  the plain text password to check
      * @param hashedPassword the BCrypt hashed password from database
+     * @param clientIp       client IP (fairness key of the hashing queue)
      * @return true if password matches
+     * @throws ServiceOverloadedException if the hashing queue is full or the wait deadline passed
      */
-    private boolean verifyPassword(String plainPassword, String hashedPassword) {
+    private boolean verifyPassword(String plainPassword, String hashedPassword, String clientIp) {
         if (plainPassword == null || hashedPassword == null) {
             return false;
         }
 
         try {
             // BCrypt.checkpw performs constant-time comparison
-            return BCrypt.checkpw(plainPassword, hashedPassword);
+            return passwordHashing.verify(plainPassword, hashedPassword, clientIp);
         } catch (IllegalArgumentException e) {
             // Invalid hash format - might be plaintext (legacy) or corrupted
             log.warn("Invalid password hash format detected. Consider migrating to BCrypt.");
@@ -206,38 +248,39 @@ public class CustomUserStorageProvider implements
         return userRepository.count();
     }
 
+    @Override
+    public int getUsersCount(RealmModel realm, String search) {
+        if (searchIndex != null && searchIndex.supports(search)) {
+            return searchIndex.count(search);
+        }
+        return userRepository.countUsers(search);
+    }
+
+    @Override
+    public int getUsersCount(RealmModel realm, Map<String, String> params) {
+        return getUsersCount(realm, params.getOrDefault("username", ""));
+    }
+
     @Override
     public Stream<UserModel> getUsersStream(RealmModel realm, Integer firstResult, Integer maxResults) {
-        return userRepository.searchUsers("")
-                .stream()
-                .skip(firstResult == null ? 0 : firstResult)
-                .limit(maxResults == null ? Integer.MAX_VALUE : maxResults)
-                .map(user -> new CustomUserAdapter(session, realm, model, user));
+        return searchForUserStream(realm, "", firstResult, maxResults);
     }
 
     @Override
     public Stream<UserModel> searchForUserStream(RealmModel realm, String search, Integer firstResult,
             Integer maxResults) {
-        return userRepository.searchUsers(search)
-                .stream()
-                .skip(firstResult == null ? 0 : firstResult)
-                .limit(maxResults == null ? Integer.MAX_VALUE : maxResults)
+        return streamPage(search, firstResult, maxResults)
                 .map(user -> new CustomUserAdapter(session, realm, model, user));
     }
 
     @Override
     public List<UserModel> getUsers(RealmModel realm, int firstResult, int maxResults) {
-        return userRepository.searchUsers("")
-                .stream()
-                .skip(firstResult)
-                .limit(maxResults)
-                .map(user -> (UserModel) new CustomUserAdapter(session, realm, model, user))
-                .toList();
+        return searchForUser("", realm, firstResult, maxResults);
     }
 
     @Override
     public List<UserModel> getUsers(RealmModel realm) {
-        return getUsers(realm, 0, Integer.MAX_VALUE);
+        return getUsers(realm, 0, -1);
     }
 
     @Override
@@ -251,57 +294,90 @@ public class CustomUserStorageProvider implements
     public List<UserModel> searchForUser(Map<String, String> params, RealmModel realm, int firstResult,
             int maxResults) {
         String search = params.getOrDefault("username", "");
-        return userRepository.searchUsers(search)
-                .stream()
-                .skip(firstResult)
-                .limit(maxResults)
-                .map(user -> (UserModel) new CustomUserAdapter(session, realm, model, user))
-                .toList();
+        return searchForUser(search, realm, firstResult, maxResults);
     }
 
     @Override
     public List<UserModel> searchForUser(Map<String, String> params, RealmModel realm) {
-        return searchForUser(params, realm, 0, Integer.MAX_VALUE);
+        return searchForUser(params, realm, 0, -1);
     }
 
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm, int firstResult, int maxResults) {
-        return userRepository.searchUsers(search)
-                .stream()
-                .skip(firstResult)
-                .limit(maxResults)
-                .map(user -> (UserModel) new CustomUserAdapter(session, realm, model, user))
-                .toList();
+        try (Stream<UserModel> users = searchForUserStream(realm, search, firstResult, maxResults)) {
+            return users.toList();
+        }
     }
 
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realm) {
-        return searchForUser(search, realm, 0, Integer.MAX_VALUE);
+        return searchForUser(search, realm, 0, -1);
     }
 
+    /**
+     * Một trang users dạng stream đọc dần từ database: LIMIT/OFFSET trong SQL, hoặc keyset
+     * nếu pagingMode = keyset và đã có cursor cho offset này (trang kế tiếp của trang vừa đọc)
+     */
+    private Stream<CustomUser> streamPage(String search, Integer firstResult, Integer maxResults) {
+        if (searchIndex != null && searchIndex.supports(search)) {
+            return indexedPage(search, firstResult, maxResults);
+        }
+        if (pageCursors == null) {
+            return userRepository.streamUsers(search, firstResult, maxResults);
+        }
+        int offset = firstResult == null || firstResult < 0 ? 0 : firstResult;
+        UserPageCursors.Cursor cursor = offset > 0 ? pageCursors.get(search, offset) : null;
+        Stream<CustomUser> page = cursor != null
+                ? userRepository.streamUsersAfter(search, cursor.username, cursor.id, maxResults)
+                : userRepository.streamUsers(search, offset, maxResults);
+        return pageCursors.track(search, offset, maxResults, page);
+    }
+
+    /**
+     * Trang kết quả từ search index: index chỉ trả ids của trang,
+     * database chỉ fetch các users của trang theo id
+     */
+    private Stream<CustomUser> indexedPage(String search, Integer firstResult, Integer maxResults) {
+        List<String> ids = searchIndex.search(search, firstResult != null ? firstResult : 0,
+                maxResults != null ? maxResults : -1);
+        return userRepository.findByIds(ids).stream();
+    }
+
+    /**
+     * Members theo bảng user_groups (group_id = id của Keycloak group), phân trang trong SQL
+     */
     @Override
     public Stream<UserModel> getGroupMembersStream(RealmModel realm, GroupModel group, Integer firstResult,
             Integer maxResults) {
-        return Stream.empty();
+        return userRepository.streamGroupMembers(group.getId(), firstResult, maxResults)
+                .map(user -> new CustomUserAdapter(session, realm, model, user));
     }
 
     @Override
     public List<UserModel> getGroupMembers(RealmModel realm, GroupModel group, int firstResult, int maxResults) {
-        return Collections.emptyList();
+        try (Stream<UserModel> users = getGroupMembersStream(realm, group, firstResult, maxResults)) {
+            return users.toList();
+        }
     }
 
     @Override
     public List<UserModel> getGroupMembers(RealmModel realm, GroupModel group) {
-        return Collections.emptyList();
+        return getGroupMembers(realm, group, 0, -1);
     }
 
+    /**
+     * Users theo bảng user_attributes (index trên attribute_name, attribute_value)
+     */
     @Override
     public Stream<UserModel> searchForUserByUserAttributeStream(RealmModel realm, String attrName, String attrValue) {
-        return Stream.empty();
+        return userRepository.streamUsersByAttribute(attrName, attrValue)
+                .map(user -> new CustomUserAdapter(session, realm, model, user));
     }
 
     @Override
     public List<UserModel> searchForUserByUserAttribute(String attrName, String attrValue, RealmModel realm) {
-        return Collections.emptyList();
+        try (Stream<UserModel> users = searchForUserByUserAttributeStream(realm, attrName, attrValue)) {
+            return users.toList();
+        }
     }
 }
@@ -1,5 +1,9 @@
 package com.example.keycloak.provider;
 
+import com.example.keycloak.service.PasswordHashingService;
+import com.example.keycloak.service.VerifiedCredentialCache;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.keycloak.Config;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
@@ -8,31 +12,232 @@ import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.storage.UserStorageProviderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory để tạo CustomUserStorageProvider
+ * 
+ * Performance:
+ * - Mỗi component (cấu hình provider trong realm) có một HikariCP pool do factory sở hữu;
+ *   provider (mỗi Keycloak session) chỉ mượn / trả connection, không mở kết nối mới
+ * - Connection được validate khi mượn (JDBC4 isValid, hoặc poolTestQuery nếu cấu hình)
+ * - User cache (CustomUserCache) theo component, dùng chung giữa các session:
+ *   getUserByUsername rồi isValid trong cùng login chỉ query database một lần
+ * - Search index (UserSearchIndex) tuỳ chọn theo component: build nền khi component được dùng lần đầu,
+ *   refresh định kỳ trên một scheduler thread của factory
+ * - BCrypt chạy trên PasswordHashingService của factory (workers = số cores, xoay vòng theo IP),
+ *   metrics qua JMX (com.example.keycloak:type=PasswordHashing)
+ * - Keyset cursors phân trang (pagingMode = keyset) theo component
+ * - Pool và cache tạo lại khi cấu hình component thay đổi, đóng khi component bị xoá
+ *   và khi factory đóng
  */
 public class CustomUserStorageProviderFactory implements UserStorageProviderFactory<CustomUserStorageProvider> {
     
+    private static final Logger log = LoggerFactory.getLogger(CustomUserStorageProviderFactory.class);
+    
     private static final String PROVIDER_ID = "custom-user-provider";
     
+    static final String CONFIG_DB_URL = "dbUrl";
+    static final String CONFIG_DB_USERNAME = "dbUsername";
+    static final String CONFIG_DB_PASSWORD = "dbPassword";
+    static final String CONFIG_POOL_MAX_SIZE = "poolMaxSize";
+    static final String CONFIG_POOL_MIN_IDLE = "poolMinIdle";
+    static final String CONFIG_POOL_CONNECTION_TIMEOUT = "poolConnectionTimeoutMs";
+    static final String CONFIG_POOL_VALIDATION_TIMEOUT = "poolValidationTimeoutMs";
+    static final String CONFIG_POOL_IDLE_TIMEOUT = "poolIdleTimeoutMs";
+    static final String CONFIG_POOL_MAX_LIFETIME = "poolMaxLifetimeMs";
+    static final String CONFIG_POOL_TEST_QUERY = "poolTestQuery";
+    static final String CONFIG_CACHE_TTL = "cacheTtlSeconds";
+    static final String CONFIG_CACHE_NEGATIVE_TTL = "cacheNegativeTtlSeconds";
+    static final String CONFIG_CACHE_MAX_SIZE = "cacheMaxSize";
+    static final String CONFIG_PAGING_MODE = "pagingMode";
+    static final String CONFIG_FETCH_SIZE = "fetchSize";
+    static final String CONFIG_SEARCH_INDEX = "searchIndex";
+    static final String CONFIG_SEARCH_INDEX_REFRESH = "searchIndexRefreshSeconds";
+    static final String CONFIG_CREDENTIAL_CACHE_TTL = "credentialCacheTtlSeconds";
+    
+    static final String PAGING_MODE_OFFSET = "offset";
+    static final String PAGING_MODE_KEYSET = "keyset";
+    
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final int DEFAULT_POOL_MIN_IDLE = 2;
+    private static final int DEFAULT_CONNECTION_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_VALIDATION_TIMEOUT_MS = 2000;
+    private static final int DEFAULT_IDLE_TIMEOUT_MS = 600000;
+    private static final int DEFAULT_MAX_LIFETIME_MS = 1800000;
+    private static final int DEFAULT_CACHE_TTL_SECONDS = 60;
+    private static final int DEFAULT_CACHE_NEGATIVE_TTL_SECONDS = 10;
+    private static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final int DEFAULT_SEARCH_INDEX_REFRESH_SECONDS = 30;
+    private static final int DEFAULT_HASHING_QUEUE_SIZE = 64;
+    private static final int DEFAULT_HASHING_QUEUE_PER_CLIENT = 4;
+    private static final int DEFAULT_HASHING_MAX_WAIT_MS = 1000;
+    
+    /**
+     * Connection pool + user cache theo component id
+     */
+    private final ConcurrentMap<String, ComponentResources> components = new ConcurrentHashMap<>();
+    
+    /**
+     * Build / refresh search index của các components (một thread: không chạy song song với nhau)
+     */
+    private ScheduledExecutorService indexScheduler;
+    
+    /**
+     * BCrypt worker pool dùng chung cho mọi component (CPU là tài nguyên của cả process)
+     */
+    private PasswordHashingService passwordHashing;
+    private PasswordHashingStats passwordHashingStats;
+    
     @Override
     public CustomUserStorageProvider create(KeycloakSession session, ComponentModel model) {
-        String dbUrl = model.getConfig().getFirst("dbUrl");
-        String dbUser = model.getConfig().getFirst("dbUsername");
-        String dbPassword = model.getConfig().getFirst("dbPassword");
+        ComponentResources resources = getResources(model);
+        return new CustomUserStorageProvider(session, model, resources.repository, resources.userCache,
+                resources.pageCursors, resources.searchIndex, passwordHashing, resources.credentialCache);
+    }
+    
+    /**
+     * Pool + cache của component; tạo mới nếu chưa có hoặc cấu hình đã thay đổi
+     * (ví dụ component được update trên node khác của cluster)
+     */
+    private ComponentResources getResources(ComponentModel model) {
+        String fingerprint = fingerprint(model);
+        ComponentResources resources = components.get(model.getId());
+        if (resources != null && resources.fingerprint.equals(fingerprint)) {
+            return resources;
+        }
+        return components.compute(model.getId(), (id, current) -> {
+            if (current != null) {
+                if (current.fingerprint.equals(fingerprint)) {
+                    return current;
+                }
+                log.info("Configuration of component {} changed, recreating connection pool and user cache", id);
+                current.close();
+            }
+            return createResources(fingerprint, model);
+        });
+    }
+    
+    private ComponentResources createResources(String fingerprint, ComponentModel model) {
+        HikariDataSource dataSource = createPool(model);
+        CustomUserRepository repository = new CustomUserRepository(dataSource,
+                getInt(model, CONFIG_FETCH_SIZE, DEFAULT_FETCH_SIZE));
+        CustomUserCache userCache = new CustomUserCache(repository,
+                getInt(model, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL_SECONDS),
+                getInt(model, CONFIG_CACHE_NEGATIVE_TTL, DEFAULT_CACHE_NEGATIVE_TTL_SECONDS),
+                getInt(model, CONFIG_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE));
+        userCache.registerMBean(model.getId());
+        UserPageCursors pageCursors = PAGING_MODE_KEYSET.equals(model.getConfig().getFirst(CONFIG_PAGING_MODE))
+                ? new UserPageCursors()
+                : null;
+        UserSearchIndex searchIndex = null;
+        ScheduledFuture<?> indexRefresh = null;
+        if (Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_SEARCH_INDEX))) {
+            searchIndex = new UserSearchIndex(repository);
+            indexRefresh = scheduleIndex(model.getId(), searchIndex,
+                    getInt(model, CONFIG_SEARCH_INDEX_REFRESH, DEFAULT_SEARCH_INDEX_REFRESH_SECONDS));
+        }
+        VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(
+                Duration.ofSeconds(getInt(model, CONFIG_CREDENTIAL_CACHE_TTL, 0)),
+                getInt(model, CONFIG_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE));
+        return new ComponentResources(fingerprint, dataSource, repository, userCache, pageCursors,
+                searchIndex, indexRefresh, credentialCache);
+    }
+    
+    /**
+     * Build index ngay (background), sau đó refresh theo updated_at mỗi refreshSeconds;
+     * cho tới khi build xong, search dùng SQL
+     */
+    private ScheduledFuture<?> scheduleIndex(String componentId, UserSearchIndex searchIndex, int refreshSeconds) {
+        return indexScheduler().scheduleWithFixedDelay(() -> {
+            try {
+                searchIndex.refresh();
+            } catch (RuntimeException e) {
+                log.error("User search index refresh failed for component {}: {}", componentId, e.toString());
+            }
+        }, 0, refreshSeconds, TimeUnit.SECONDS);
+    }
+    
+    private synchronized ScheduledExecutorService indexScheduler() {
+        if (indexScheduler == null) {
+            indexScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "custom-user-search-index");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return indexScheduler;
+    }
+    
+    private HikariDataSource createPool(ComponentModel model) {
+        String dbUrl = model.getConfig().getFirst(CONFIG_DB_URL);
+        
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("custom-user-" + model.getId());
+        config.setJdbcUrl(dbUrl);
+        config.setUsername(model.getConfig().getFirst(CONFIG_DB_USERNAME));
+        config.setPassword(model.getConfig().getFirst(CONFIG_DB_PASSWORD));
+        config.setMaximumPoolSize(getInt(model, CONFIG_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE));
+        config.setMinimumIdle(getInt(model, CONFIG_POOL_MIN_IDLE, DEFAULT_POOL_MIN_IDLE));
+        config.setConnectionTimeout(getInt(model, CONFIG_POOL_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT_MS));
+        config.setValidationTimeout(getInt(model, CONFIG_POOL_VALIDATION_TIMEOUT, DEFAULT_VALIDATION_TIMEOUT_MS));
+        config.setIdleTimeout(getInt(model, CONFIG_POOL_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_MS));
+        config.setMaxLifetime(getInt(model, CONFIG_POOL_MAX_LIFETIME, DEFAULT_MAX_LIFETIME_MS));
+        String testQuery = model.getConfig().getFirst(CONFIG_POOL_TEST_QUERY);
+        if (testQuery != null && !testQuery.isBlank()) {
+            config.setConnectionTestQuery(testQuery);
+        }
         
         try {
-            java.sql.Connection connection = java.sql.DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-            CustomUserRepository userRepository = new CustomUserRepository(connection);
-            return new CustomUserStorageProvider(session, model, userRepository);
-        } catch (java.sql.SQLException e) {
+            HikariDataSource dataSource = new HikariDataSource(config);
+            log.info("Connection pool {} created: url={}, maxSize={}, minIdle={}",
+                    config.getPoolName(), dbUrl, config.getMaximumPoolSize(), config.getMinimumIdle());
+            return dataSource;
+        } catch (RuntimeException e) {
             throw new RuntimeException("Failed to connect to database: " + dbUrl, e);
         }
     }
     
+    private static String fingerprint(ComponentModel model) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (String key : List.of(CONFIG_DB_URL, CONFIG_DB_USERNAME, CONFIG_DB_PASSWORD,
+                CONFIG_POOL_MAX_SIZE, CONFIG_POOL_MIN_IDLE, CONFIG_POOL_CONNECTION_TIMEOUT,
+                CONFIG_POOL_VALIDATION_TIMEOUT, CONFIG_POOL_IDLE_TIMEOUT, CONFIG_POOL_MAX_LIFETIME,
+                CONFIG_POOL_TEST_QUERY, CONFIG_CACHE_TTL, CONFIG_CACHE_NEGATIVE_TTL, CONFIG_CACHE_MAX_SIZE,
+                CONFIG_PAGING_MODE, CONFIG_FETCH_SIZE, CONFIG_SEARCH_INDEX, CONFIG_SEARCH_INDEX_REFRESH,
+                CONFIG_CREDENTIAL_CACHE_TTL)) {
+            fingerprint.append(model.getConfig().getFirst(key)).append('\u0000');
+        }
+        return fingerprint.toString();
+    }
+    
+    private static int getInt(ComponentModel model, String key, int defaultValue) {
+        String value = model.getConfig().getFirst(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+    
+    private void closeComponent(String componentId) {
+        ComponentResources resources = components.remove(componentId);
+        if (resources != null) {
+            resources.close();
+            log.info("Connection pool and user cache of component {} closed", componentId);
+        }
+    }
+    
     @Override
     public String getId() {
         return PROVIDER_ID;
@@ -46,33 +251,160 @@ public class CustomUserStorageProviderFactory implements UserStorageProviderFact
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
         return List.of(
-            new ProviderConfigProperty("dbUrl", "Database URL", 
+            new ProviderConfigProperty(CONFIG_DB_URL, "Database URL", 
                 "JDBC URL của database", 
                 ProviderConfigProperty.STRING_TYPE, 
                 "jdbc:h2:mem:testdb"),
-            new ProviderConfigProperty("dbUsername", "Database Username", 
+            new ProviderConfigProperty(CONFIG_DB_USERNAME, "Database Username", 
                 "Username để kết nối database", 
                 ProviderConfigProperty.STRING_TYPE, 
                 "sa"),
-            new ProviderConfigProperty("dbPassword", "Database Password", 
+            new ProviderConfigProperty(CONFIG_DB_PASSWORD, "Database Password", 
                 "Password để kết nối database", 
                 ProviderConfigProperty.STRING_TYPE, 
-                "")
+                ""),
+            new ProviderConfigProperty(CONFIG_POOL_MAX_SIZE, "Pool Max Size", 
+                "Số connection tối đa của pool", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_POOL_MAX_SIZE)),
+            new ProviderConfigProperty(CONFIG_POOL_MIN_IDLE, "Pool Min Idle", 
+                "Số connection idle tối thiểu giữ sẵn", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_POOL_MIN_IDLE)),
+            new ProviderConfigProperty(CONFIG_POOL_CONNECTION_TIMEOUT, "Pool Connection Timeout (ms)", 
+                "Thời gian chờ tối đa để mượn connection từ pool", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_CONNECTION_TIMEOUT_MS)),
+            new ProviderConfigProperty(CONFIG_POOL_VALIDATION_TIMEOUT, "Pool Validation Timeout (ms)", 
+                "Thời gian tối đa để validate connection khi mượn", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_VALIDATION_TIMEOUT_MS)),
+            new ProviderConfigProperty(CONFIG_POOL_IDLE_TIMEOUT, "Pool Idle Timeout (ms)", 
+                "Connection idle lâu hơn sẽ bị đóng (trên mức min idle)", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_IDLE_TIMEOUT_MS)),
+            new ProviderConfigProperty(CONFIG_POOL_MAX_LIFETIME, "Pool Max Lifetime (ms)", 
+                "Thời gian sống tối đa của một connection (nhỏ hơn timeout của database)", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_MAX_LIFETIME_MS)),
+            new ProviderConfigProperty(CONFIG_POOL_TEST_QUERY, "Pool Test Query", 
+                "Query validate connection (để trống nếu driver hỗ trợ JDBC4 isValid)", 
+                ProviderConfigProperty.STRING_TYPE, 
+                ""),
+            new ProviderConfigProperty(CONFIG_CACHE_TTL, "User Cache TTL (s)", 
+                "Thời gian cache user (0 = tắt cache); thay đổi trong database có hiệu lực sau tối đa TTL", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_CACHE_TTL_SECONDS)),
+            new ProviderConfigProperty(CONFIG_CACHE_NEGATIVE_TTL, "User Cache Negative TTL (s)", 
+                "Thời gian cache kết quả user không tồn tại", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_CACHE_NEGATIVE_TTL_SECONDS)),
+            new ProviderConfigProperty(CONFIG_CACHE_MAX_SIZE, "User Cache Max Size", 
+                "Số entries tối đa của user cache (mỗi user tối đa 3 entries: id, username, email)", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_CACHE_MAX_SIZE)),
+            listProperty(CONFIG_PAGING_MODE, "Paging Mode", 
+                "offset: LIMIT/OFFSET; keyset: trang kế tiếp đọc tiếp từ (username, id) của trang trước, "
+                    + "không quét lại các trang phía trước (nên dùng khi có nhiều users)", 
+                PAGING_MODE_OFFSET, List.of(PAGING_MODE_OFFSET, PAGING_MODE_KEYSET)),
+            new ProviderConfigProperty(CONFIG_FETCH_SIZE, "JDBC Fetch Size", 
+                "Số dòng driver đọc mỗi lần khi stream users (MySQL cần useCursorFetch=true trong URL)", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_FETCH_SIZE)),
+            new ProviderConfigProperty(CONFIG_SEARCH_INDEX, "Search Index", 
+                "Trigram index trong bộ nhớ cho search (>= 3 ký tự) thay cho LIKE '%term%' trên database; "
+                    + "bảng users cần cột updated_at", 
+                ProviderConfigProperty.BOOLEAN_TYPE, 
+                "false"),
+            new ProviderConfigProperty(CONFIG_SEARCH_INDEX_REFRESH, "Search Index Refresh (s)", 
+                "Chu kỳ đọc các users có updated_at mới để cập nhật search index", 
+                ProviderConfigProperty.STRING_TYPE, 
+                String.valueOf(DEFAULT_SEARCH_INDEX_REFRESH_SECONDS)),
+            new ProviderConfigProperty(CONFIG_CREDENTIAL_CACHE_TTL, "Verified Credential Cache TTL (s)", 
+                "Login lặp lại với password đúng trong TTL bỏ qua BCrypt (0 = tắt); "
+                    + "chỉ lưu HMAC của password với key ngẫu nhiên của process", 
+                ProviderConfigProperty.STRING_TYPE, 
+                "0")
         );
     }
     
+    private static ProviderConfigProperty listProperty(String name, String label, String helpText,
+                                                       String defaultValue, List<String> options) {
+        ProviderConfigProperty property = new ProviderConfigProperty(name, label, helpText,
+                ProviderConfigProperty.LIST_TYPE, defaultValue);
+        property.setOptions(options);
+        return property;
+    }
+    
     @Override
     public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel config) 
             throws ComponentValidationException {
         // Validate configuration
-        String dbUrl = config.getConfig().getFirst("dbUrl");
+        String dbUrl = config.getConfig().getFirst(CONFIG_DB_URL);
         if (dbUrl == null || dbUrl.isEmpty()) {
             throw new ComponentValidationException("Database URL is required");
         }
+        
+        try {
+            int maxSize = getInt(config, CONFIG_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE);
+            int minIdle = getInt(config, CONFIG_POOL_MIN_IDLE, DEFAULT_POOL_MIN_IDLE);
+            if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+                throw new ComponentValidationException("Pool sizes must satisfy 0 <= min idle <= max size, max size >= 1");
+            }
+            if (getInt(config, CONFIG_POOL_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT_MS) < 250
+                    || getInt(config, CONFIG_POOL_VALIDATION_TIMEOUT, DEFAULT_VALIDATION_TIMEOUT_MS) < 250) {
+                throw new ComponentValidationException("Pool connection/validation timeouts must be at least 250 ms");
+            }
+            getInt(config, CONFIG_POOL_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_MS);
+            getInt(config, CONFIG_POOL_MAX_LIFETIME, DEFAULT_MAX_LIFETIME_MS);
+            if (getInt(config, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL_SECONDS) < 0
+                    || getInt(config, CONFIG_CACHE_NEGATIVE_TTL, DEFAULT_CACHE_NEGATIVE_TTL_SECONDS) < 0
+                    || getInt(config, CONFIG_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE) < 0
+                    || getInt(config, CONFIG_CREDENTIAL_CACHE_TTL, 0) < 0) {
+                throw new ComponentValidationException("User cache settings must not be negative");
+            }
+            if (getInt(config, CONFIG_FETCH_SIZE, DEFAULT_FETCH_SIZE) < 1) {
+                throw new ComponentValidationException("Fetch size must be at least 1");
+            }
+            if (getInt(config, CONFIG_SEARCH_INDEX_REFRESH, DEFAULT_SEARCH_INDEX_REFRESH_SECONDS) < 1) {
+                throw new ComponentValidationException("Search index refresh interval must be at least 1 second");
+            }
+        } catch (NumberFormatException e) {
+            throw new ComponentValidationException("Pool and cache settings must be integers: " + e.getMessage());
+        }
+        
+        String pagingMode = config.getConfig().getFirst(CONFIG_PAGING_MODE);
+        if (pagingMode != null && !pagingMode.isBlank()
+                && !PAGING_MODE_OFFSET.equals(pagingMode) && !PAGING_MODE_KEYSET.equals(pagingMode)) {
+            throw new ComponentValidationException("Paging mode must be 'offset' or 'keyset'");
+        }
     }
     
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        // Pool và cache mới được tạo với cấu hình mới ở lần create() tiếp theo
+        closeComponent(oldModel.getId());
+    }
+    
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        closeComponent(model.getId());
+    }
+    
+    /**
+     * Password hashing pool theo SPI config (spi-storage-custom-user-provider-password-hashing-*):
+     * threads (0 = số cores), queue-size, queue-per-client, max-wait-ms
+     */
     @Override
     public void init(Config.Scope config) {
+        passwordHashingStats = new PasswordHashingStats();
+        passwordHashing = new PasswordHashingService(
+                config.getInt("passwordHashingThreads", 0),
+                config.getInt("passwordHashingQueueSize", DEFAULT_HASHING_QUEUE_SIZE),
+                config.getInt("passwordHashingQueuePerClient", DEFAULT_HASHING_QUEUE_PER_CLIENT),
+                Duration.ofMillis(config.getInt("passwordHashingMaxWaitMs", DEFAULT_HASHING_MAX_WAIT_MS)),
+                passwordHashingStats);
+        passwordHashingStats.registerMBean(passwordHashing);
     }
     
     @Override
@@ -81,6 +413,51 @@ public class CustomUserStorageProviderFactory implements UserStorageProviderFact
     
     @Override
     public void close() {
+        for (String componentId : List.copyOf(components.keySet())) {
+            closeComponent(componentId);
+        }
+        synchronized (this) {
+            if (indexScheduler != null) {
+                indexScheduler.shutdownNow();
+                indexScheduler = null;
+            }
+        }
+        if (passwordHashing != null) {
+            passwordHashing.close();
+            passwordHashingStats.unregisterMBean();
+        }
+    }
+    
+    private static final class ComponentResources {
+        private final String fingerprint;
+        private final HikariDataSource dataSource;
+        private final CustomUserRepository repository;
+        private final CustomUserCache userCache;
+        private final UserPageCursors pageCursors;
+        private final UserSearchIndex searchIndex;
+        private final ScheduledFuture<?> indexRefresh;
+        private final VerifiedCredentialCache credentialCache;
+        
+        private ComponentResources(String fingerprint, HikariDataSource dataSource, CustomUserRepository repository,
+                                   CustomUserCache userCache, UserPageCursors pageCursors,
+                                   UserSearchIndex searchIndex, ScheduledFuture<?> indexRefresh,
+                                   VerifiedCredentialCache credentialCache) {
+            this.fingerprint = fingerprint;
+            this.dataSource = dataSource;
+            this.repository = repository;
+            this.userCache = userCache;
+            this.pageCursors = pageCursors;
+            this.searchIndex = searchIndex;
+            this.indexRefresh = indexRefresh;
+            this.credentialCache = credentialCache;
+        }
+        
+        private void close() {
+            if (indexRefresh != null) {
+                indexRefresh.cancel(true);
+            }
+            userCache.close();
+            dataSource.close();
+        }
     }
 }
-
@@ -0,0 +1,151 @@
+package com.example.keycloak.provider;
+
+import com.example.keycloak.service.PasswordHashingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics của PasswordHashingService trong Keycloak (không có Micrometer): histograms
+ * luỹ thừa 2 cho thời gian chờ hàng đợi và thời gian tính BCrypt, export qua JMX
+ */
+class PasswordHashingStats implements PasswordHashingService.Metrics, PasswordHashingStatsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashingStats.class);
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray queueWait = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray compute = new AtomicLongArray(BUCKETS);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private PasswordHashingService service;
+    private ObjectName objectName;
+
+    @Override
+    public void completed(long queueWaitNanos, long computeNanos) {
+        queueWait.incrementAndGet(bucket(queueWaitNanos));
+        compute.incrementAndGet(bucket(computeNanos));
+        completed.increment();
+    }
+
+    @Override
+    public void rejected(String reason) {
+        rejected.increment();
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static double percentileMillis(AtomicLongArray histogram, double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (BUCKETS - 1)) / 1000.0;
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram) {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return service != null ? service.getQueueDepth() : 0;
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return service != null ? service.getWorkerCount() : 0;
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return percentileMillis(queueWait, 0.50);
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return percentileMillis(queueWait, 0.99);
+    }
+
+    @Override
+    public double getComputeP50Millis() {
+        return percentileMillis(compute, 0.50);
+    }
+
+    @Override
+    public double getComputeP99Millis() {
+        return percentileMillis(compute, 0.99);
+    }
+
+    @Override
+    public long[] getQueueWaitHistogram() {
+        return snapshot(queueWait);
+    }
+
+    @Override
+    public long[] getComputeHistogram() {
+        return snapshot(compute);
+    }
+
+    /**
+     * Đăng ký MBean com.example.keycloak:type=PasswordHashing cho service
+     */
+    void registerMBean(PasswordHashingService service) {
+        this.service = service;
+        try {
+            objectName = new ObjectName("com.example.keycloak:type=PasswordHashing");
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register password hashing MBean: {}", e.getMessage());
+            objectName = null;
+        }
+    }
+
+    void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.debug("Could not unregister password hashing MBean: {}", e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.keycloak.provider;
+
+/**
+ * JMX view của password hashing pool trong Keycloak (com.example.keycloak:type=PasswordHashing)
+ *
+ * Percentiles là cận trên của bucket luỹ thừa 2 (microseconds) chứa percentile đó
+ */
+public interface PasswordHashingStatsMXBean {
+
+    long getCompletedCount();
+
+    long getRejectedCount();
+
+    int getQueueDepth();
+
+    int getWorkerCount();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    double getComputeP50Millis();
+
+    double getComputeP99Millis();
+
+    /**
+     * Số lần chờ hàng đợi theo bucket: phần tử i = thời gian trong [2^(i-1), 2^i) microseconds
+     */
+    long[] getQueueWaitHistogram();
+
+    /**
+     * Số lần tính BCrypt theo bucket: phần tử i = thời gian trong [2^(i-1), 2^i) microseconds
+     */
+    long[] getComputeHistogram();
+}
@@ -0,0 +1,186 @@
+package com.example.keycloak.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker cho remote user API của một component
+ *
+ * - CLOSED: ghi nhận N kết quả gần nhất (count-based window); mở khi tỷ lệ lỗi (I/O, timeout, 5xx)
+ *   hoặc tỷ lệ call chậm (latency > slow-call threshold) đạt ngưỡng, sau tối thiểu N/2 calls;
+ *   ngưỡng 0 = tắt tiêu chí đó (vẫn thống kê cho metrics)
+ * - OPEN: từ chối ngay (không giữ Keycloak worker chờ API đang suy giảm) trong open duration
+ * - HALF_OPEN: cho một số call thử; không call nào lỗi / chậm (theo tiêu chí đang bật) thì đóng,
+ *   ngược lại mở lại
+ */
+public class RemoteCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteCircuitBreaker.class);
+
+    private static final int HALF_OPEN_CALLS = 3;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int windowSize;
+    private final int minCalls;
+    private final int failureRatePercent;
+    private final int slowCallRatePercent;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // Trạng thái bên dưới chỉ truy cập khi giữ lock của breaker
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int index;
+    private int recorded;
+    private int failures;
+    private int slow;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    /**
+     * @param windowSize          số kết quả gần nhất được xét
+     * @param failureRatePercent  tỷ lệ lỗi (%) làm breaker mở (0 = không mở vì lỗi)
+     * @param slowCall            latency được coi là chậm
+     * @param slowCallRatePercent tỷ lệ call chậm (%) làm breaker mở (0 = không mở vì latency)
+     * @param openDuration        thời gian từ chối trước khi thử lại
+     */
+    public RemoteCircuitBreaker(String name, int windowSize, int failureRatePercent, Duration slowCall,
+                                int slowCallRatePercent, Duration openDuration) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minCalls = Math.max(1, windowSize / 2);
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.slowCallNanos = slowCall.toNanos();
+        this.openNanos = openDuration.toNanos();
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    /**
+     * Call có được thực hiện không; nếu true, caller phải báo kết quả bằng onResult hoặc onCancelled
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected.increment();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenPermits = 0;
+            halfOpenSuccesses = 0;
+            log.info("Circuit breaker {} half-open, sending trial requests", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits >= HALF_OPEN_CALLS) {
+                rejected.increment();
+                return false;
+            }
+            halfOpenPermits++;
+        }
+        return true;
+    }
+
+    /**
+     * Kết quả của một call đã được cho phép
+     *
+     * @param failed lỗi I/O, timeout hoặc 5xx
+     */
+    public synchronized void onResult(boolean failed, long latencyNanos) {
+        boolean isSlow = latencyNanos > slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (failed && failureRatePercent > 0 || isSlow && slowCallRatePercent > 0) {
+                open();
+            } else if (++halfOpenSuccesses >= HALF_OPEN_CALLS) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // Kết quả muộn của call bắt đầu trước khi breaker mở
+            return;
+        }
+
+        if (recorded == windowSize) {
+            failures -= failedCalls[index] ? 1 : 0;
+            slow -= slowCalls[index] ? 1 : 0;
+        } else {
+            recorded++;
+        }
+        failedCalls[index] = failed;
+        slowCalls[index] = isSlow;
+        failures += failed ? 1 : 0;
+        slow += isSlow ? 1 : 0;
+        index = (index + 1) % windowSize;
+
+        if (recorded >= minCalls && (failureRatePercent > 0 && failures * 100 >= failureRatePercent * recorded
+                || slowCallRatePercent > 0 && slow * 100 >= slowCallRatePercent * recorded)) {
+            log.warn("Circuit breaker {} opened: failures={}/{}, slow={}/{}", name, failures, recorded, slow, recorded);
+            open();
+        }
+    }
+
+    /**
+     * Call đã được cho phép nhưng không có kết quả (caller bị interrupt)
+     */
+    public synchronized void onCancelled() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        openCount.increment();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        index = 0;
+        recorded = 0;
+        failures = 0;
+        slow = 0;
+        log.info("Circuit breaker {} closed", name);
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            // Call kế tiếp sẽ là call thử
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized double getFailureRatePercent() {
+        return recorded == 0 ? 0 : failures * 100.0 / recorded;
+    }
+
+    public synchronized double getSlowCallRatePercent() {
+        return recorded == 0 ? 0 : slow * 100.0 / recorded;
+    }
+
+    /**
+     * Số lần breaker chuyển sang OPEN
+     */
+    public long getOpenCount() {
+        return openCount.sum();
+    }
+
+    /**
+     * Số calls bị từ chối vì breaker đang mở
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
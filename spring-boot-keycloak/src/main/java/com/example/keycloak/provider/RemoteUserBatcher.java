@@ -0,0 +1,249 @@
+package com.example.keycloak.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gộp các lookups remote user đến trong một cửa sổ ngắn thành một bulk request
+ *
+ * Performance:
+ * - Lookups cùng field trong batch window (hoặc tới khi đủ max batch size) được gửi bằng một
+ *   request đã ký tới {apiUrl}/batch; kết quả được trả về từng caller theo value
+ * - Admin list views / token refresh storms: số requests tới API theo số batches, không theo số users
+ * - Cùng value trong một batch chỉ được hỏi một lần
+ * - Lỗi / timeout của bulk request được trả cho mọi caller trong batch
+ * - API không có bulk endpoint (404 / 405): batcher tự tắt, lookups dùng GET từng key
+ * - Bulk requests chạy trên pool threads gửi riêng của batcher (không dùng executor của HttpClient);
+ *   timer thread chỉ đóng batch và giao cho pool gửi, nên bulk request chậm không làm trễ batch
+ *   window của các field khác
+ * - Pool gửi có giới hạn (threads + hàng đợi): khi đầy, batch nhận lỗi ngay thay vì chờ quá deadline
+ */
+public class RemoteUserBatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteUserBatcher.class);
+
+    private static final int SEND_THREADS = 4;
+    private static final int SEND_QUEUE_SIZE = 64;
+
+    private final RemoteUserClient client;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor sender;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedLookups = new LongAdder();
+    private volatile boolean unsupported;
+
+    /**
+     * Batch đang gom theo field; chỉ truy cập khi giữ lock của batcher
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    /**
+     * @param name         tên (component id) cho threads
+     * @param window       thời gian gom lookups kể từ lookup đầu tiên của batch
+     * @param maxBatchSize số values tối đa trong một bulk request
+     */
+    public RemoteUserBatcher(RemoteUserClient client, String name, Duration window, int maxBatchSize) {
+        this.client = client;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        // Request timeout cho lượt gửi + request timeout cho chính request
+        this.maxWaitNanos = windowNanos + 2 * client.getRequestTimeout().toNanos();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("remote-user-batch-timer-" + name));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.sender = new ThreadPoolExecutor(SEND_THREADS, SEND_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(SEND_QUEUE_SIZE), daemonThreads("remote-user-batch-" + name),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.sender.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Lookup một value, gửi cùng các lookups khác của field này trong batch window
+     *
+     * @throws IOException nếu bulk request lỗi hoặc quá thời gian chờ
+     */
+    public RemoteUserClient.Lookup lookup(String field, String value) throws IOException, InterruptedException {
+        if (unsupported) {
+            return client.lookup(field, value, null);
+        }
+        CompletableFuture<RemoteUserClient.Lookup> result;
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = pending.get(field);
+            if (batch == null) {
+                Batch created = new Batch(field);
+                created.timer = scheduler.schedule(() -> flush(created), windowNanos, TimeUnit.NANOSECONDS);
+                pending.put(field, created);
+                batch = created;
+            }
+            result = batch.results.computeIfAbsent(value, key -> new CompletableFuture<>());
+            if (batch.results.size() >= maxBatchSize) {
+                pending.remove(field);
+                batch.timer.cancel(false);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        RemoteUserClient.Lookup lookup = await(result);
+        // null: API không có bulk endpoint
+        return lookup != null ? lookup : client.lookup(field, value, null);
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (pending.get(batch.field) != batch) {
+                // Đã đủ max batch size và được gửi
+                return;
+            }
+            pending.remove(batch.field);
+        }
+        dispatch(batch);
+    }
+
+    /**
+     * Giao batch cho pool gửi; timer thread và caller không chờ bulk request
+     */
+    private void dispatch(Batch batch) {
+        try {
+            sender.execute(new Send(batch));
+        } catch (RejectedExecutionException e) {
+            failAll(batch, new IOException(sender.isShutdown()
+                    ? "Remote user batcher is closed" : "Too many batch lookups in flight"));
+        }
+    }
+
+    private void send(Batch batch) {
+        batches.increment();
+        batchedLookups.add(batch.results.size());
+        try {
+            Map<String, RemoteUserClient.Lookup> lookups = client.lookupBatch(batch.field, batch.results.keySet());
+            if (lookups == null) {
+                if (!unsupported) {
+                    unsupported = true;
+                    log.warn("Remote user API has no bulk endpoint, falling back to per-key lookups");
+                }
+                batch.results.values().forEach(result -> result.complete(null));
+                return;
+            }
+            batch.results.forEach((value, result) -> result.complete(lookups.get(value)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failAll(batch, new InterruptedIOException("Batch lookup was interrupted"));
+        } catch (IOException | RuntimeException e) {
+            log.debug("Batch lookup of {} {} values failed: {}", batch.results.size(), batch.field, e.toString());
+            failAll(batch, e);
+        }
+    }
+
+    private static void failAll(Batch batch, Exception error) {
+        batch.results.values().forEach(result -> result.completeExceptionally(error));
+    }
+
+    private RemoteUserClient.Lookup await(CompletableFuture<RemoteUserClient.Lookup> result)
+            throws IOException, InterruptedException {
+        try {
+            return result.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new HttpTimeoutException("Timed out waiting for batch lookup");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Số bulk requests đã gửi
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Số values đã được hỏi qua bulk requests
+     */
+    public long getBatchedLookupCount() {
+        return batchedLookups.sum();
+    }
+
+    /**
+     * Dừng threads; lookups đang chờ nhận lỗi
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (Runnable dropped : sender.shutdownNow()) {
+            failAll(((Send) dropped).batch, new IOException("Remote user batcher is closed"));
+        }
+        synchronized (this) {
+            for (Batch batch : pending.values()) {
+                failAll(batch, new IOException("Remote user batcher is closed"));
+            }
+            pending.clear();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Tác vụ gửi của pool; giữ batch để close() trả lỗi cho batch còn trong hàng đợi
+     */
+    private final class Send implements Runnable {
+        private final Batch batch;
+
+        private Send(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            send(batch);
+        }
+    }
+
+    private static final class Batch {
+        private final String field;
+        private final Map<String, CompletableFuture<RemoteUserClient.Lookup>> results = new LinkedHashMap<>();
+        private ScheduledFuture<?> timer;
+
+        private Batch(String field) {
+            this.field = field;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.keycloak.provider;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache kết quả lookup remote user của một component, theo (field, value), dùng chung giữa các session
+ *
+ * Performance:
+ * - getUserById / getUserByUsername / getUserByEmail lặp lại trong login flow và token refresh
+ *   không gọi API trong TTL
+ * - User không tồn tại (404) được cache với TTL ngắn hơn (negative caching)
+ * - Refresh-ahead: entry được đọc sau refresh interval (user "nóng") được tải lại nền trên refresh executor,
+ *   request hiện tại vẫn nhận giá trị đang có
+ * - Tải lại gửi If-None-Match với ETag của entry: 304 chỉ gia hạn entry, không tải lại / parse body
+ * - Lookup đồng thời cùng (field, value) dùng chung một HTTP exchange (SingleFlight), kể cả khi
+ *   cache tắt; lỗi / timeout của exchange đó trả cho mọi caller đang chờ thay vì mỗi caller thử lại
+ * - Cache miss đi qua RemoteUserBatcher (nếu bật): misses của nhiều users trong batch window
+ *   thành một bulk request; refresh luôn là GET từng key (conditional nếu entry có ETag) để
+ *   entry nạp qua bulk request (không có ETag) nhận ETag và các lần refresh sau chỉ tốn 304
+ * - Lỗi API (timeout, 5xx) không được cache, lỗi khi refresh giữ nguyên entry cũ
+ * - Trả về bản copy: CustomUserAdapter thay đổi user không ảnh hưởng entry trong cache
+ * - Stats qua JMX (RemoteUserCacheMXBean)
+ *
+ * Thay đổi ở remote API có hiệu lực sau tối đa TTL.
+ */
+public class RemoteUserCache implements RemoteUserCacheMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteUserCache.class);
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final RemoteUserClient client;
+    private final RemoteUserBatcher batcher;
+    private final LoadingCache<String, CachedUser> cache;
+    private final boolean enabled;
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder lookupFailures = new LongAdder();
+    private final SingleFlight<String, CachedUser> inFlight = new SingleFlight<>();
+    private ObjectName objectName;
+
+    /**
+     * @param ttlSeconds         TTL của user tồn tại (0 = tắt cache)
+     * @param negativeTtlSeconds TTL của kết quả 404
+     * @param refreshSeconds     tuổi entry để lần đọc kế tiếp kích hoạt refresh nền (0 hoặc >= TTL = tắt)
+     * @param refreshExecutor    chạy refresh nền (không dùng executor của HttpClient: refresh chờ response)
+     * @param batcher            gộp cache misses thành bulk requests (null = mỗi miss một request)
+     */
+    public RemoteUserCache(RemoteUserClient client, long ttlSeconds, long negativeTtlSeconds, long refreshSeconds,
+                           long maxSize, Executor refreshExecutor, RemoteUserBatcher batcher) {
+        this.client = client;
+        this.batcher = batcher;
+        this.enabled = ttlSeconds > 0;
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        long negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        Caffeine<String, CachedUser> builder = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .executor(refreshExecutor)
+                .expireAfter(new Expiry<String, CachedUser>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedUser value, long currentTime) {
+                        return value.user != null ? ttlNanos : negativeTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedUser value, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedUser value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats();
+        if (refreshSeconds > 0 && refreshSeconds < ttlSeconds) {
+            builder.refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build(new CacheLoader<String, CachedUser>() {
+            @Override
+            public CachedUser load(String key) throws Exception {
+                // find() dùng getIfPresent + SingleFlight; loader chỉ phục vụ refresh
+                return fetch(key, null);
+            }
+
+            @Override
+            public CachedUser reload(String key, CachedUser oldValue) throws Exception {
+                return fetch(key, oldValue);
+            }
+        });
+    }
+
+    /**
+     * User có field = value, hoặc null nếu API trả 404 / không có user
+     *
+     * @throws IOException nếu API lỗi (không được cache)
+     */
+    public CustomUser find(String field, String value) throws IOException, InterruptedException {
+        String key = field + KEY_SEPARATOR + value;
+        CachedUser cached = enabled ? cache.getIfPresent(key) : null;
+        if (cached == null) {
+            cached = load(key);
+        }
+        return cached.user != null ? copy(cached.user) : null;
+    }
+
+    /**
+     * Cache miss: một HTTP exchange cho mọi caller đồng thời của key; kết quả được đặt vào cache
+     * trước khi key được giải phóng
+     */
+    private CachedUser load(String key) throws IOException, InterruptedException {
+        try {
+            return inFlight.execute(key, () -> {
+                CachedUser loaded = fetch(key, null);
+                if (enabled) {
+                    cache.put(key, loaded);
+                }
+                return loaded;
+            });
+        } catch (IOException | RuntimeException e) {
+            lookupFailures.increment();
+            throw e;
+        }
+    }
+
+    private CachedUser fetch(String key, CachedUser previous) throws IOException, InterruptedException {
+        int separator = key.indexOf(KEY_SEPARATOR);
+        String field = key.substring(0, separator);
+        String value = key.substring(separator + 1);
+        String etag = previous != null ? previous.etag : null;
+
+        RemoteUserClient.Lookup lookup = previous == null && batcher != null
+                ? batcher.lookup(field, value)
+                : client.lookup(field, value, etag);
+        switch (lookup.getStatus()) {
+            case FOUND:
+                return new CachedUser(lookup.getUser(), lookup.getEtag());
+            case NOT_MODIFIED:
+                if (previous == null) {
+                    throw new IOException("Remote user API returned 304 without a conditional request");
+                }
+                notModified.increment();
+                return new CachedUser(previous.user, previous.etag);
+            default:
+                return CachedUser.MISSING;
+        }
+    }
+
+    private static CustomUser copy(CustomUser user) {
+        return new CustomUser(user.getId(), user.getUsername(), user.getEmail(), user.getPassword(),
+                user.getFirstName(), user.getLastName(), user.isEnabled());
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return lookupFailures.sum() + cache.stats().loadFailureCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return inFlight.getCoalescedCount();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batcher != null ? batcher.getBatchCount() : 0;
+    }
+
+    @Override
+    public long getBatchedLookupCount() {
+        return batcher != null ? batcher.getBatchedLookupCount() : 0;
+    }
+
+    @Override
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Đăng ký MBean com.example.keycloak:type=RemoteUserCache,component=...
+     */
+    public void registerMBean(String componentId) {
+        try {
+            objectName = new ObjectName("com.example.keycloak:type=RemoteUserCache,component="
+                    + ObjectName.quote(componentId));
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register remote user cache MBean for component {}: {}", componentId, e.getMessage());
+            objectName = null;
+        }
+    }
+
+    /**
+     * Xoá cache và huỷ đăng ký MBean (component bị update / xoá, factory đóng)
+     */
+    public void close() {
+        cache.invalidateAll();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.debug("Could not unregister remote user cache MBean {}: {}", objectName, e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    private static final class CachedUser {
+        private static final CachedUser MISSING = new CachedUser(null, null);
+
+        private final CustomUser user;
+        private final String etag;
+
+        private CachedUser(CustomUser user, String etag) {
+            this.user = user;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.keycloak.provider;
+
+/**
+ * JMX view của RemoteUserCache (com.example.keycloak:type=RemoteUserCache,component=...)
+ */
+public interface RemoteUserCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadFailureCount();
+
+    long getEvictionCount();
+
+    /**
+     * Số lần revalidate nhận 304 Not Modified (entry được giữ, không tải lại body)
+     */
+    long getNotModifiedCount();
+
+    /**
+     * Số lookups dùng chung HTTP exchange đang chạy của lookup khác cùng (field, value)
+     */
+    long getCoalescedCount();
+
+    /**
+     * Số bulk requests của RemoteUserBatcher
+     */
+    long getBatchCount();
+
+    /**
+     * Số lookups đã được gửi qua bulk requests
+     */
+    long getBatchedLookupCount();
+
+    long getSize();
+
+    void invalidateAll();
+}
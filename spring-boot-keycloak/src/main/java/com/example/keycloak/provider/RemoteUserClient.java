@@ -0,0 +1,649 @@
+package com.example.keycloak.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP client tới remote user API của một component, dùng chung giữa các Keycloak session
+ *
+ * Performance:
+ * - Một HttpClient cho mỗi component (factory sở hữu): connection keep-alive và TLS session
+ *   được dùng lại giữa các sessions thay vì mỗi session một selector thread + pool nguội
+ * - HTTP/2 (ALPN với https, upgrade với http; server không hỗ trợ thì dùng HTTP/1.1):
+ *   nhiều requests multiplex trên một connection
+ * - Executor có giới hạn threads cho các tác vụ async của client; hàng đợi không giới hạn
+ *   (thực tế bị chặn bởi maxConcurrentRequests): tác vụ không bao giờ chạy trên selector thread
+ *   của HttpClient (CallerRunsPolicy) và không bị bỏ; chỉ từ chối (AbortPolicy) sau shutdown
+ * - Số requests đồng thời có giới hạn (maxConcurrentRequests): chờ tối đa request timeout
+ *   rồi báo HttpTimeoutException, API chậm không giữ hết Keycloak workers
+ * - Connect timeout / request timeout theo cấu hình component; request timeout là deadline của cả call
+ *   (kể cả retries, hedge và thời gian chờ lượt)
+ *
+ * Resilience:
+ * - Circuit breaker (RemoteCircuitBreaker) cho mọi requests: mở theo tỷ lệ lỗi hoặc tỷ lệ call chậm,
+ *   khi mở thì fail fast thay vì giữ Keycloak worker tới hết timeout
+ * - GET (idempotent) được retry khi lỗi I/O / timeout / 502-504, tối đa MAX_RETRIES lần với jittered backoff,
+ *   trong giới hạn RetryBudget; POST /login không bao giờ retry / hedge
+ * - Hedged requests (tuỳ chọn): GET chưa có response sau p95 latency thì gửi request thứ hai,
+ *   dùng response về trước và huỷ request còn lại; hedge tiêu retry budget
+ * - Breaker state, retries, hedges / hedge wins, p95 qua JMX (RemoteUserClientMXBean)
+ *
+ * SECURITY: requests được ký HMAC-SHA256 (method | url | body | timestamp) bằng apiSecret của component
+ *
+ * Idle keep-alive của JDK HttpClient cấu hình theo JVM
+ * (-Djdk.httpclient.keepalive.timeout, -Djdk.httpclient.connectionPoolSize).
+ */
+public class RemoteUserClient implements RemoteUserClientMXBean, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteUserClient.class);
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAX_RETRIES = 2;
+    private static final long RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Không retry / hedge nếu deadline còn ít hơn mức này
+    private static final long MIN_ATTEMPT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String name;
+    private final String apiUrl;
+    private final String apiSecret;
+    private final Duration requestTimeout;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RemoteCircuitBreaker breaker;
+    private final RetryBudget retryBudget;
+    private final boolean hedging;
+    private final LatencyWindow latencies = new LatencyWindow();
+    private volatile boolean closed;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private ObjectName objectName;
+
+    /**
+     * Kết quả lookup user: FOUND (user + ETag), NOT_MODIFIED (ETag vẫn đúng), NOT_FOUND
+     */
+    public static final class Lookup {
+
+        public enum Status { FOUND, NOT_MODIFIED, NOT_FOUND }
+
+        private final Status status;
+        private final CustomUser user;
+        private final String etag;
+
+        private static final Lookup NOT_FOUND = new Lookup(Status.NOT_FOUND, null, null);
+
+        private Lookup(Status status, CustomUser user, String etag) {
+            this.status = status;
+            this.user = user;
+            this.etag = etag;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public CustomUser getUser() {
+            return user;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * @param name                  tên (component id) cho threads và log
+     * @param apiUrl                base URL của remote user API
+     * @param apiSecret             key ký HMAC
+     * @param http2                 thử HTTP/2 trước HTTP/1.1
+     * @param requestTimeout        deadline của một call, kể cả retries / hedge
+     * @param threads               số threads của executor
+     * @param maxConcurrentRequests số requests đang chạy tối đa
+     * @param breaker               circuit breaker của component
+     * @param retryBudget           giới hạn retries / hedges
+     * @param hedging               gửi hedged GET khi vượt p95 latency
+     */
+    public RemoteUserClient(String name, String apiUrl, String apiSecret, boolean http2, Duration connectTimeout,
+                            Duration requestTimeout, int threads, int maxConcurrentRequests,
+                            RemoteCircuitBreaker breaker, RetryBudget retryBudget, boolean hedging) {
+        this.name = name;
+        this.apiUrl = apiUrl;
+        this.apiSecret = apiSecret;
+        this.requestTimeout = requestTimeout;
+        this.breaker = breaker;
+        this.retryBudget = retryBudget;
+        this.hedging = hedging;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("remote-user-http-" + name),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.httpClient = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+        log.info("Remote user HTTP client {} created: http2={}, threads={}, maxConcurrent={}, "
+                + "connectTimeout={}, requestTimeout={}, hedging={}", name, http2, threads, maxConcurrentRequests,
+                connectTimeout, requestTimeout, hedging);
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Deadline của một call (send), kể cả retries / hedge
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Gửi request qua circuit breaker; GET được retry / hedge, mọi lượt gửi trong request timeout
+     *
+     * Response 5xx được trả về caller (sau khi hết lượt retry) nhưng tính là lỗi cho breaker.
+     *
+     * @throws IOException          nếu breaker đang mở hoặc lượt gửi cuối cùng lỗi
+     * @throws HttpTimeoutException nếu hết request timeout (kể cả khi chờ lượt vì đủ maxConcurrentRequests)
+     */
+    public HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("Remote user client " + name + " is closed");
+        }
+        boolean idempotent = "GET".equals(request.method());
+        long deadline = System.nanoTime() + requestTimeout.toNanos();
+        retryBudget.onRequest();
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                throw new IOException("Remote user API circuit breaker is open");
+            }
+            try {
+                acquirePermit(deadline);
+            } catch (PermitTimeoutException | InterruptedException e) {
+                // Quá tải phía Keycloak, không phải lỗi của API: không tính cho breaker, không retry
+                breaker.onCancelled();
+                throw e;
+            }
+            // Latency tính từ khi có lượt: thời gian chờ lượt không làm call bị tính là chậm
+            long start = System.nanoTime();
+            HttpResponse<String> response;
+            try {
+                response = idempotent && hedging ? sendHedged(request, deadline) : sendOnce(request, deadline);
+            } catch (IOException e) {
+                breaker.onResult(true, System.nanoTime() - start);
+                if (!retry(idempotent, attempt, deadline)) {
+                    throw e;
+                }
+                log.debug("Retrying {} {} after {}", request.method(), request.uri().getPath(), e.toString());
+                continue;
+            } catch (InterruptedException | RuntimeException e) {
+                breaker.onCancelled();
+                throw e;
+            }
+
+            long latency = System.nanoTime() - start;
+            int status = response.statusCode();
+            breaker.onResult(status >= 500, latency);
+            if (status < 500) {
+                latencies.record(latency);
+                return response;
+            }
+            if (status < 502 || status > 504 || !retry(idempotent, attempt, deadline)) {
+                return response;
+            }
+            log.debug("Retrying {} {} after status {}", request.method(), request.uri().getPath(), status);
+        }
+    }
+
+    /**
+     * Có retry không (GET, còn lượt, còn thời gian, còn budget); nếu có thì chờ jittered backoff
+     */
+    private boolean retry(boolean idempotent, int attempt, long deadline) throws InterruptedException {
+        if (!idempotent || attempt >= MAX_RETRIES) {
+            return false;
+        }
+        long backoff = ThreadLocalRandom.current().nextLong(RETRY_BACKOFF_NANOS << attempt);
+        if (deadline - System.nanoTime() - backoff < MIN_ATTEMPT_NANOS || !retryBudget.tryWithdraw()) {
+            return false;
+        }
+        TimeUnit.NANOSECONDS.sleep(backoff);
+        return true;
+    }
+
+    /**
+     * Gửi với lượt đã lấy (acquirePermit); lượt được trả khi có response
+     */
+    private HttpResponse<String> sendOnce(HttpRequest request, long deadline) throws IOException, InterruptedException {
+        try {
+            return httpClient.send(withDeadline(request, deadline), HttpResponse.BodyHandlers.ofString());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Gửi GET; nếu chưa có response sau p95 latency thì gửi hedged request (nếu còn lượt và budget),
+     * trả về response thành công đầu tiên và huỷ request còn lại; request đầu dùng lượt đã lấy
+     */
+    private HttpResponse<String> sendHedged(HttpRequest request, long deadline)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<String>> primary = sendAsync(request, deadline);
+        CompletableFuture<HttpResponse<String>> hedge = null;
+        try {
+            long hedgeDelay = latencies.p95Nanos();
+            if (hedgeDelay < 0 || deadline - System.nanoTime() - hedgeDelay < MIN_ATTEMPT_NANOS) {
+                return await(primary, deadline);
+            }
+            try {
+                return primary.get(Math.max(hedgeDelay, MIN_HEDGE_DELAY_NANOS), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Chậm hơn p95: thử hedge
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+            if (!permits.tryAcquire()) {
+                return await(primary, deadline);
+            }
+            if (!retryBudget.tryWithdraw()) {
+                permits.release();
+                return await(primary, deadline);
+            }
+            hedges.increment();
+            hedge = sendAsync(request, deadline);
+
+            CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+            AtomicInteger failed = new AtomicInteger();
+            primary.whenComplete((response, error) -> {
+                if (error == null) {
+                    first.complete(response);
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+            hedge.whenComplete((response, error) -> {
+                if (error == null) {
+                    if (first.complete(response)) {
+                        hedgeWins.increment();
+                    }
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+            return await(first, deadline);
+        } finally {
+            // JDK HttpClient huỷ exchange khi future bị cancel; không ảnh hưởng future đã xong
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Gửi async với lượt đã lấy; lượt được trả khi exchange xong hoặc bị huỷ
+     */
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request, long deadline)
+            throws HttpTimeoutException {
+        CompletableFuture<HttpResponse<String>> future;
+        try {
+            future = httpClient.sendAsync(withDeadline(request, deadline), HttpResponse.BodyHandlers.ofString());
+        } catch (HttpTimeoutException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete((response, error) -> permits.release());
+        return future;
+    }
+
+    /**
+     * Chờ lượt, chừa lại ít nhất MIN_ATTEMPT_NANOS cho chính request: không gửi request chắc chắn timeout
+     * (timeout đó là do hàng đợi phía Keycloak, không phải do API)
+     */
+    private void acquirePermit(long deadline) throws PermitTimeoutException, InterruptedException {
+        if (!permits.tryAcquire(deadline - System.nanoTime() - MIN_ATTEMPT_NANOS, TimeUnit.NANOSECONDS)) {
+            throw new PermitTimeoutException();
+        }
+    }
+
+    private static HttpRequest withDeadline(HttpRequest request, long deadline) throws HttpTimeoutException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new HttpTimeoutException("Remote user API request timed out");
+        }
+        return HttpRequest.newBuilder(request, (header, value) -> true)
+                .timeout(Duration.ofNanos(remaining))
+                .build();
+    }
+
+    private static HttpResponse<String> await(CompletableFuture<HttpResponse<String>> future, long deadline)
+            throws IOException, InterruptedException {
+        try {
+            return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new HttpTimeoutException("Remote user API request timed out");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * GET {apiUrl}?{field}={value} đã ký; gửi If-None-Match nếu có ETag của lần trước
+     *
+     * @throws IOException nếu API lỗi (status khác 200 / 304 / 404) hoặc response không đọc được
+     */
+    public Lookup lookup(String field, String value, String etag) throws IOException, InterruptedException {
+        String uriStr = apiUrl + "?" + field + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8);
+        String timestamp = String.valueOf(Instant.now().getEpochSecond());
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(uriStr))
+                .timeout(requestTimeout)
+                .header("X-Timestamp", timestamp)
+                .header("X-Signature", sign("GET", uriStr, "", timestamp))
+                .header("X-Request-ID", UUID.randomUUID().toString())
+                .GET();
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+
+        HttpResponse<String> response = send(request.build());
+        switch (response.statusCode()) {
+            case 200:
+                CustomUser user = deserializeUser(response.body());
+                return user != null
+                        ? new Lookup(Lookup.Status.FOUND, user, response.headers().firstValue("ETag").orElse(null))
+                        : Lookup.NOT_FOUND;
+            case 304:
+                return new Lookup(Lookup.Status.NOT_MODIFIED, null, etag);
+            case 404:
+                return Lookup.NOT_FOUND;
+            default:
+                throw new IOException("Remote user API returned status " + response.statusCode());
+        }
+    }
+
+    /**
+     * Bulk lookup: GET {apiUrl}/batch?{field}={v1}&{field}={v2}... đã ký, một request cho nhiều values
+     *
+     * @return kết quả cho mỗi value (theo thứ tự values): FOUND (không có ETag) hoặc NOT_FOUND;
+     *         null nếu API không có bulk endpoint (404 / 405)
+     * @throws IOException nếu API lỗi (status khác 200 / 404 / 405) hoặc response không đọc được
+     */
+    public Map<String, Lookup> lookupBatch(String field, Collection<String> values)
+            throws IOException, InterruptedException {
+        StringBuilder query = new StringBuilder();
+        for (String value : values) {
+            query.append(query.length() == 0 ? '?' : '&').append(field).append('=')
+                    .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+        String uriStr = apiUrl + "/batch" + query;
+        String timestamp = String.valueOf(Instant.now().getEpochSecond());
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uriStr))
+                .timeout(requestTimeout)
+                .header("X-Timestamp", timestamp)
+                .header("X-Signature", sign("GET", uriStr, "", timestamp))
+                .header("X-Request-ID", UUID.randomUUID().toString())
+                .GET()
+                .build();
+
+        HttpResponse<String> response = send(request);
+        if (response.statusCode() == 404 || response.statusCode() == 405) {
+            return null;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Remote user API returned status " + response.statusCode() + " for batch lookup");
+        }
+        Map<String, CustomUser> found = new LinkedHashMap<>();
+        String body = response.body();
+        if (body != null && !body.isBlank()) {
+            for (CustomUser user : objectMapper.readValue(body, CustomUser[].class)) {
+                String key = fieldValue(user, field);
+                if (key != null) {
+                    found.putIfAbsent(key, user);
+                }
+            }
+        }
+        Map<String, Lookup> results = new LinkedHashMap<>();
+        for (String value : values) {
+            CustomUser user = found.get(value);
+            results.put(value, user != null ? new Lookup(Lookup.Status.FOUND, user, null) : Lookup.NOT_FOUND);
+        }
+        return results;
+    }
+
+    private static String fieldValue(CustomUser user, String field) {
+        switch (field) {
+            case "id":
+                return user.getId();
+            case "username":
+                return user.getUsername();
+            case "email":
+                return user.getEmail();
+            default:
+                throw new IllegalArgumentException("Unsupported lookup field: " + field);
+        }
+    }
+
+    /**
+     * SECURITY: HMAC signature của request (đảm bảo integrity và authenticity)
+     */
+    public String sign(String method, String url, String body, String timestamp) {
+        try {
+            String dataToSign = method + "|" + url + "|" + body + "|" + timestamp;
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(apiSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            byte[] hmacBytes = mac.doFinal(dataToSign.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hmacBytes);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Body là một user hoặc mảng users (lấy phần tử đầu); rỗng = không có user
+     */
+    private CustomUser deserializeUser(String json) throws IOException {
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        if (json.trim().startsWith("[")) {
+            CustomUser[] users = objectMapper.readValue(json, CustomUser[].class);
+            return users.length > 0 ? users[0] : null;
+        }
+        return objectMapper.readValue(json, CustomUser.class);
+    }
+
+    @Override
+    public String getBreakerState() {
+        return breaker.getState().name();
+    }
+
+    @Override
+    public double getBreakerFailureRatePercent() {
+        return breaker.getFailureRatePercent();
+    }
+
+    @Override
+    public double getBreakerSlowCallRatePercent() {
+        return breaker.getSlowCallRatePercent();
+    }
+
+    @Override
+    public long getBreakerOpenCount() {
+        return breaker.getOpenCount();
+    }
+
+    @Override
+    public long getBreakerRejectedCount() {
+        return breaker.getRejectedCount();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryBudget.getWithdrawnCount() - hedges.sum();
+    }
+
+    @Override
+    public long getRetryBudgetExhaustedCount() {
+        return retryBudget.getExhaustedCount();
+    }
+
+    @Override
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public double getLatencyP95Millis() {
+        long p95 = latencies.p95Nanos();
+        return p95 < 0 ? 0 : p95 / 1e6;
+    }
+
+    /**
+     * Đăng ký MBean com.example.keycloak:type=RemoteUserClient,component=...
+     */
+    public void registerMBean(String componentId) {
+        try {
+            objectName = new ObjectName("com.example.keycloak:type=RemoteUserClient,component="
+                    + ObjectName.quote(componentId));
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register remote user client MBean for component {}: {}", componentId, e.getMessage());
+            objectName = null;
+        }
+    }
+
+    /**
+     * Từ chối calls mới (IOException), huỷ đăng ký MBean; selector thread của HttpClient kết thúc
+     * khi client không còn được tham chiếu
+     *
+     * Sessions đang chạy có thể vẫn dùng client (onUpdate / cấu hình đổi): executor chỉ shutdown sau
+     * một request timeout, khi mọi call bắt đầu trước close() đã tới deadline - HttpClient của JDK 17
+     * không tự chạy lại tác vụ bị executor từ chối; caller không bị chặn
+     */
+    @Override
+    public void close() {
+        closed = true;
+        CompletableFuture.delayedExecutor(requestTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                .execute(executor::shutdown);
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.debug("Could not unregister remote user client MBean {}: {}", objectName, e.getMessage());
+            }
+            objectName = null;
+        }
+        log.info("Remote user HTTP client {} closed", name);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Latency của SIZE requests thành công gần nhất, cho ngưỡng hedge
+     */
+    private static final class LatencyWindow {
+        private static final int SIZE = 128;
+        private static final int MIN_SAMPLES = 20;
+
+        private final long[] samples = new long[SIZE];
+        private int index;
+        private int count;
+
+        synchronized void record(long nanos) {
+            samples[index] = nanos;
+            index = (index + 1) % SIZE;
+            count = Math.min(count + 1, SIZE);
+        }
+
+        /**
+         * p95 latency, hoặc -1 khi chưa đủ MIN_SAMPLES
+         */
+        long p95Nanos() {
+            long[] sorted;
+            synchronized (this) {
+                if (count < MIN_SAMPLES) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        }
+    }
+
+    /**
+     * Hết request timeout khi chờ lượt (đủ maxConcurrentRequests): request chưa được gửi tới API
+     */
+    private static final class PermitTimeoutException extends HttpTimeoutException {
+        private PermitTimeoutException() {
+            super("Too many concurrent requests to remote user API");
+        }
+    }
+}
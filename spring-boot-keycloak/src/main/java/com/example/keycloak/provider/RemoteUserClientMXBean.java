@@ -0,0 +1,36 @@
+package com.example.keycloak.provider;
+
+/**
+ * JMX view của RemoteUserClient (com.example.keycloak:type=RemoteUserClient,component=...)
+ */
+public interface RemoteUserClientMXBean {
+
+    /**
+     * CLOSED | OPEN | HALF_OPEN
+     */
+    String getBreakerState();
+
+    double getBreakerFailureRatePercent();
+
+    double getBreakerSlowCallRatePercent();
+
+    long getBreakerOpenCount();
+
+    long getBreakerRejectedCount();
+
+    long getRetryCount();
+
+    long getRetryBudgetExhaustedCount();
+
+    long getHedgeCount();
+
+    /**
+     * Số lần hedged request trả về trước request đầu tiên
+     */
+    long getHedgeWinCount();
+
+    /**
+     * p95 latency của các requests thành công gần nhất (ngưỡng gửi hedged request)
+     */
+    double getLatencyP95Millis();
+}
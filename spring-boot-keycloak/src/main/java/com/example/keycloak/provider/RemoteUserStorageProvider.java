@@ -14,21 +14,14 @@ import org.keycloak.storage.user.UserLookupProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Remote User Storage Provider cho Keycloak
@@ -40,6 +33,11 @@ import java.util.stream.Stream;
  * - Request timeout
  * - Audit logging
  * - No plaintext password in logs
+ * 
+ * Performance:
+ * - HTTP client (RemoteUserClient) thuộc factory, dùng chung giữa các sessions của component
+ * - Lookup theo id / username / email đi qua RemoteUserCache của factory
+ *   (TTL, negative caching 404, revalidate bằng ETag)
  */
 public class RemoteUserStorageProvider implements
         UserStorageProvider,
@@ -49,31 +47,24 @@ public class RemoteUserStorageProvider implements
     private static final Logger log = LoggerFactory.getLogger(RemoteUserStorageProvider.class);
     private static final Logger auditLog = LoggerFactory.getLogger("AUDIT");
 
-    // Security constants
-    private static final int REQUEST_TIMEOUT_SECONDS = 10;
-    private static final String HMAC_ALGORITHM = "HmacSHA256";
-
     private final KeycloakSession session;
     private final ComponentModel model;
-    private final String apiUrl;
-    private final String apiSecret;
-    private final HttpClient httpClient;
+    private final RemoteUserClient httpClient;
+    private final RemoteUserCache userCache;
     private final ObjectMapper objectMapper;
 
-    public RemoteUserStorageProvider(KeycloakSession session, ComponentModel model, String apiUrl) {
+    public RemoteUserStorageProvider(KeycloakSession session, ComponentModel model, RemoteUserClient httpClient,
+                                     RemoteUserCache userCache) {
         this.session = session;
         this.model = model;
-        this.apiUrl = apiUrl;
-        // In production, this should come from secure configuration (Vault, HSM, etc.)
-        this.apiSecret = model.get("apiSecret", "default-secret-change-in-production");
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS))
-                .build();
+        this.httpClient = httpClient;
+        this.userCache = userCache;
         this.objectMapper = new ObjectMapper();
     }
 
     @Override
     public void close() {
+        // HTTP client thuộc factory, đóng cùng component
     }
 
     @Override
@@ -94,52 +85,19 @@ public class RemoteUserStorageProvider implements
 
     private UserModel fetchUserBy(String field, String value, RealmModel realm) {
         try {
-            String uriStr = String.format("%s?%s=%s", apiUrl, field, value);
-
-            // Generate request signature for security
-            String timestamp = String.valueOf(Instant.now().getEpochSecond());
-            String signature = generateHmacSignature("GET", uriStr, "", timestamp);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(uriStr))
-                    .timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS))
-                    .header("X-Timestamp", timestamp)
-                    .header("X-Signature", signature)
-                    .header("X-Request-ID", generateRequestId())
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                String body = response.body();
-                if (body != null && !body.isEmpty()) {
-                    CustomUser remoteUser = deserializeUser(body);
-                    if (remoteUser != null) {
-                        return new CustomUserAdapter(session, realm, model, remoteUser);
-                    }
-                }
+            CustomUser remoteUser = userCache.find(field, value);
+            if (remoteUser != null) {
+                return new CustomUserAdapter(session, realm, model, remoteUser);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while fetching user by {}", field);
         } catch (Exception e) {
             log.error("Error fetching user by {}: {}", field, e.getMessage());
         }
         return null;
     }
 
-    private CustomUser deserializeUser(String json) {
-        try {
-            if (json.startsWith("[")) {
-                CustomUser[] users = objectMapper.readValue(json, CustomUser[].class);
-                return users.length > 0 ? users[0] : null;
-            } else {
-                return objectMapper.readValue(json, CustomUser.class);
-            }
-        } catch (Exception e) {
-            log.error("Error deserializing user: {}", e.getMessage());
-            return null;
-        }
-    }
-
     // ========== CredentialInputValidator ==========
 
     @Override
@@ -172,11 +130,12 @@ public class RemoteUserStorageProvider implements
                     "passwordHash", passwordHash,
                     "timestamp", timestamp));
 
-            String signature = generateHmacSignature("POST", apiUrl + "/login", requestBody, timestamp);
+            String loginUrl = httpClient.getApiUrl() + "/login";
+            String signature = httpClient.sign("POST", loginUrl, requestBody, timestamp);
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl + "/login"))
-                    .timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS))
+                    .uri(URI.create(loginUrl))
+                    .timeout(httpClient.getRequestTimeout())
                     .header("Content-Type", "application/json")
                     .header("X-Timestamp", timestamp)
                     .header("X-Signature", signature)
@@ -184,7 +143,7 @@ public class RemoteUserStorageProvider implements
                     .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpClient.send(request);
 
             boolean isValid = response.statusCode() == 200;
 
@@ -205,28 +164,6 @@ public class RemoteUserStorageProvider implements
         }
     }
 
-    /**
-     * SECURITY: Generate HMAC signature for API request
-     * This ensures request integrity and authenticity
-     */
-    private String generateHmacSignature(String method, String url, String body, String timestamp) {
-        try {
-            String dataToSign = method + "|" + url + "|" + body + "|" + timestamp;
-
-            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-            SecretKeySpec keySpec = new SecretKeySpec(
-                    apiSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
-            mac.init(keySpec);
-
-            byte[] hmacBytes = mac.doFinal(dataToSign.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(hmacBytes);
-
-        } catch (Exception e) {
-            log.error("Error generating HMAC signature: {}", e.getMessage());
-            return "";
-        }
-    }
-
     /**
      * SECURITY: Hash password before transmission
      * Uses SHA-256 for one-way hashing
@@ -1,22 +1,198 @@
 package com.example.keycloak.provider;
 
+import org.keycloak.Config;
 import org.keycloak.component.ComponentModel;
+import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
-import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.storage.UserStorageProviderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Factory để tạo RemoteUserStorageProvider
+ *
+ * Performance:
+ * - Mỗi component có một RemoteUserClient (HttpClient HTTP/2 + executor có giới hạn) do factory sở hữu;
+ *   provider (mỗi Keycloak session) chỉ dùng lại client, không tạo connection mới
+ * - User cache (RemoteUserCache) theo component: TTL, negative caching 404, ETag revalidation,
+ *   refresh nền cho users được đọc thường xuyên (trên refresh threads của factory)
+ * - Cache misses trong batch window được gộp thành bulk requests (RemoteUserBatcher, {apiUrl}/batch),
+ *   opt-in vì cần API có bulk endpoint
+ * - Circuit breaker (tỷ lệ lỗi / tỷ lệ call chậm), retry budget cho GET và hedged requests (tuỳ chọn)
+ *   theo component; state và counters qua JMX (RemoteUserClientMXBean)
+ * - Client và cache tạo lại khi cấu hình của component thay đổi, đóng khi component bị xoá
+ *   và khi factory đóng
+ */
 public class RemoteUserStorageProviderFactory implements UserStorageProviderFactory<RemoteUserStorageProvider> {
 
+    private static final Logger log = LoggerFactory.getLogger(RemoteUserStorageProviderFactory.class);
+
     public static final String PROVIDER_ID = "remote-content-provider";
 
+    static final String CONFIG_API_URL = "apiUrl";
+    static final String CONFIG_HTTP2 = "http2";
+    static final String CONFIG_CONNECT_TIMEOUT = "connectTimeoutMs";
+    static final String CONFIG_REQUEST_TIMEOUT = "requestTimeoutMs";
+    static final String CONFIG_HTTP_THREADS = "httpThreads";
+    static final String CONFIG_MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+    static final String CONFIG_API_SECRET = "apiSecret";
+    static final String CONFIG_CACHE_TTL = "cacheTtlSeconds";
+    static final String CONFIG_CACHE_NEGATIVE_TTL = "cacheNegativeTtlSeconds";
+    static final String CONFIG_CACHE_REFRESH = "cacheRefreshSeconds";
+    static final String CONFIG_CACHE_MAX_SIZE = "cacheMaxSize";
+    static final String CONFIG_BATCH_WINDOW = "batchWindowMs";
+    static final String CONFIG_BATCH_MAX_SIZE = "batchMaxSize";
+    static final String CONFIG_BREAKER_WINDOW = "breakerWindowSize";
+    static final String CONFIG_BREAKER_FAILURE_RATE = "breakerFailureRatePercent";
+    static final String CONFIG_BREAKER_SLOW_CALL = "breakerSlowCallMs";
+    static final String CONFIG_BREAKER_SLOW_CALL_RATE = "breakerSlowCallRatePercent";
+    static final String CONFIG_BREAKER_OPEN = "breakerOpenMs";
+    static final String CONFIG_RETRY_BUDGET = "retryBudgetPercent";
+    static final String CONFIG_HEDGING = "hedging";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_REQUEST_TIMEOUT_MS = 3000;
+    private static final int DEFAULT_HTTP_THREADS = 4;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+    private static final int DEFAULT_CACHE_TTL_SECONDS = 60;
+    private static final int DEFAULT_CACHE_NEGATIVE_TTL_SECONDS = 10;
+    private static final int DEFAULT_CACHE_REFRESH_SECONDS = 45;
+    private static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+    private static final int DEFAULT_BATCH_WINDOW_MS = 0;
+    private static final int DEFAULT_BATCH_MAX_SIZE = 50;
+    private static final int DEFAULT_BREAKER_WINDOW = 20;
+    private static final int DEFAULT_BREAKER_FAILURE_RATE = 50;
+    private static final int DEFAULT_BREAKER_SLOW_CALL_MS = 1000;
+    private static final int DEFAULT_BREAKER_SLOW_CALL_RATE = 80;
+    private static final int DEFAULT_BREAKER_OPEN_MS = 10000;
+    private static final int DEFAULT_RETRY_BUDGET_PERCENT = 10;
+    private static final int CACHE_REFRESH_THREADS = 2;
+    // In production, this should come from secure configuration (Vault, HSM, etc.)
+    private static final String DEFAULT_API_SECRET = "default-secret-change-in-production";
+
+    /**
+     * HTTP client + user cache theo component id
+     */
+    private final ConcurrentMap<String, ComponentResources> components = new ConcurrentHashMap<>();
+
+    /**
+     * Refresh nền của các user caches (dùng chung cho mọi component)
+     */
+    private ExecutorService cacheRefreshExecutor;
+
     @Override
     public RemoteUserStorageProvider create(KeycloakSession session, ComponentModel model) {
-        String apiUrl = model.getConfig().getFirst("apiUrl");
-        return new RemoteUserStorageProvider(session, model, apiUrl);
+        ComponentResources resources = getResources(model);
+        return new RemoteUserStorageProvider(session, model, resources.client, resources.userCache);
+    }
+
+    /**
+     * Client + cache của component; tạo mới nếu chưa có hoặc cấu hình đã thay đổi
+     */
+    private ComponentResources getResources(ComponentModel model) {
+        String fingerprint = fingerprint(model);
+        ComponentResources resources = components.get(model.getId());
+        if (resources != null && resources.fingerprint.equals(fingerprint)) {
+            return resources;
+        }
+        return components.compute(model.getId(), (id, current) -> {
+            if (current != null) {
+                if (current.fingerprint.equals(fingerprint)) {
+                    return current;
+                }
+                log.info("Configuration of component {} changed, recreating remote user HTTP client and cache", id);
+                current.close();
+            }
+            return createResources(fingerprint, model);
+        });
+    }
+
+    private ComponentResources createResources(String fingerprint, ComponentModel model) {
+        String http2 = model.getConfig().getFirst(CONFIG_HTTP2);
+        String apiSecret = model.get(CONFIG_API_SECRET, DEFAULT_API_SECRET);
+        RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(model.getId(),
+                getInt(model, CONFIG_BREAKER_WINDOW, DEFAULT_BREAKER_WINDOW),
+                getInt(model, CONFIG_BREAKER_FAILURE_RATE, DEFAULT_BREAKER_FAILURE_RATE),
+                Duration.ofMillis(getInt(model, CONFIG_BREAKER_SLOW_CALL, DEFAULT_BREAKER_SLOW_CALL_MS)),
+                getInt(model, CONFIG_BREAKER_SLOW_CALL_RATE, DEFAULT_BREAKER_SLOW_CALL_RATE),
+                Duration.ofMillis(getInt(model, CONFIG_BREAKER_OPEN, DEFAULT_BREAKER_OPEN_MS)));
+        RemoteUserClient client = new RemoteUserClient(model.getId(),
+                model.getConfig().getFirst(CONFIG_API_URL), apiSecret,
+                http2 == null || http2.isBlank() || Boolean.parseBoolean(http2),
+                Duration.ofMillis(getInt(model, CONFIG_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS)),
+                Duration.ofMillis(getInt(model, CONFIG_REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT_MS)),
+                getInt(model, CONFIG_HTTP_THREADS, DEFAULT_HTTP_THREADS),
+                getInt(model, CONFIG_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS),
+                breaker, new RetryBudget(getInt(model, CONFIG_RETRY_BUDGET, DEFAULT_RETRY_BUDGET_PERCENT)),
+                Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_HEDGING)));
+        client.registerMBean(model.getId());
+        int batchWindowMs = getInt(model, CONFIG_BATCH_WINDOW, DEFAULT_BATCH_WINDOW_MS);
+        int batchMaxSize = getInt(model, CONFIG_BATCH_MAX_SIZE, DEFAULT_BATCH_MAX_SIZE);
+        RemoteUserBatcher batcher = batchWindowMs > 0 && batchMaxSize > 1
+                ? new RemoteUserBatcher(client, model.getId(), Duration.ofMillis(batchWindowMs), batchMaxSize)
+                : null;
+        RemoteUserCache userCache = new RemoteUserCache(client,
+                getInt(model, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL_SECONDS),
+                getInt(model, CONFIG_CACHE_NEGATIVE_TTL, DEFAULT_CACHE_NEGATIVE_TTL_SECONDS),
+                getInt(model, CONFIG_CACHE_REFRESH, DEFAULT_CACHE_REFRESH_SECONDS),
+                getInt(model, CONFIG_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE),
+                cacheRefreshExecutor(), batcher);
+        userCache.registerMBean(model.getId());
+        return new ComponentResources(fingerprint, client, userCache, batcher);
+    }
+
+    private synchronized ExecutorService cacheRefreshExecutor() {
+        if (cacheRefreshExecutor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            cacheRefreshExecutor = Executors.newFixedThreadPool(CACHE_REFRESH_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "remote-user-cache-refresh-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return cacheRefreshExecutor;
+    }
+
+    private static String fingerprint(ComponentModel model) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (String key : List.of(CONFIG_API_URL, CONFIG_API_SECRET, CONFIG_HTTP2, CONFIG_CONNECT_TIMEOUT,
+                CONFIG_REQUEST_TIMEOUT, CONFIG_HTTP_THREADS, CONFIG_MAX_CONCURRENT_REQUESTS, CONFIG_CACHE_TTL,
+                CONFIG_CACHE_NEGATIVE_TTL, CONFIG_CACHE_REFRESH, CONFIG_CACHE_MAX_SIZE, CONFIG_BATCH_WINDOW,
+                CONFIG_BATCH_MAX_SIZE, CONFIG_BREAKER_WINDOW, CONFIG_BREAKER_FAILURE_RATE, CONFIG_BREAKER_SLOW_CALL,
+                CONFIG_BREAKER_SLOW_CALL_RATE, CONFIG_BREAKER_OPEN, CONFIG_RETRY_BUDGET, CONFIG_HEDGING)) {
+            fingerprint.append(model.getConfig().getFirst(key)).append('\u0000');
+        }
+        return fingerprint.toString();
+    }
+
+    private static int getInt(ComponentModel model, String key, int defaultValue) {
+        String value = model.getConfig().getFirst(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    private static boolean isPercent(int value) {
+        return value >= 0 && value <= 100;
+    }
+
+    private void closeComponent(String componentId) {
+        ComponentResources resources = components.remove(componentId);
+        if (resources != null) {
+            resources.close();
+        }
     }
 
     @Override
@@ -32,9 +208,178 @@ public class RemoteUserStorageProviderFactory implements UserStorageProviderFact
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
         return List.of(
-                new ProviderConfigProperty("apiUrl", "API URL",
+                new ProviderConfigProperty(CONFIG_API_URL, "API URL",
                         "Base URL of the remote API",
                         ProviderConfigProperty.STRING_TYPE,
-                        "http://localhost:8082/api"));
+                        "http://localhost:8082/api"),
+                new ProviderConfigProperty(CONFIG_HTTP2, "HTTP/2",
+                        "Thử HTTP/2 (multiplex nhiều requests trên một connection), fallback HTTP/1.1",
+                        ProviderConfigProperty.BOOLEAN_TYPE,
+                        "true"),
+                new ProviderConfigProperty(CONFIG_CONNECT_TIMEOUT, "Connect Timeout (ms)",
+                        "Thời gian tối đa để mở connection tới API",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_CONNECT_TIMEOUT_MS)),
+                new ProviderConfigProperty(CONFIG_REQUEST_TIMEOUT, "Request Timeout (ms)",
+                        "Thời gian tối đa của một call (kể cả retries, hedge và chờ lượt khi đủ số requests đồng thời)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_REQUEST_TIMEOUT_MS)),
+                new ProviderConfigProperty(CONFIG_HTTP_THREADS, "HTTP Client Threads",
+                        "Số threads của executor dùng chung cho HTTP client của component",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_HTTP_THREADS)),
+                new ProviderConfigProperty(CONFIG_MAX_CONCURRENT_REQUESTS, "Max Concurrent Requests",
+                        "Số requests tới API đang chạy đồng thời tối đa",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_MAX_CONCURRENT_REQUESTS)),
+                new ProviderConfigProperty(CONFIG_CACHE_TTL, "User Cache TTL (s)",
+                        "Thời gian cache kết quả lookup (0 = tắt cache); thay đổi ở API có hiệu lực sau tối đa TTL",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_CACHE_TTL_SECONDS)),
+                new ProviderConfigProperty(CONFIG_CACHE_NEGATIVE_TTL, "User Cache Negative TTL (s)",
+                        "Thời gian cache kết quả 404 (user không tồn tại)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_CACHE_NEGATIVE_TTL_SECONDS)),
+                new ProviderConfigProperty(CONFIG_CACHE_REFRESH, "User Cache Refresh (s)",
+                        "Entry cũ hơn được revalidate nền (If-None-Match) khi được đọc (0 = tắt, phải nhỏ hơn TTL)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_CACHE_REFRESH_SECONDS)),
+                new ProviderConfigProperty(CONFIG_CACHE_MAX_SIZE, "User Cache Max Size",
+                        "Số entries tối đa của user cache (mỗi (field, value) một entry)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_CACHE_MAX_SIZE)),
+                new ProviderConfigProperty(CONFIG_BATCH_WINDOW, "Batch Window (ms)",
+                        "Cache misses trong cửa sổ này được gộp thành một request tới {apiUrl}/batch "
+                                + "(0 = tắt, mỗi lookup một request; chỉ bật khi API có bulk endpoint)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BATCH_WINDOW_MS)),
+                new ProviderConfigProperty(CONFIG_BATCH_MAX_SIZE, "Batch Max Size",
+                        "Số values tối đa trong một bulk request",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BATCH_MAX_SIZE)),
+                new ProviderConfigProperty(CONFIG_BREAKER_WINDOW, "Circuit Breaker Window",
+                        "Số kết quả gần nhất dùng để tính tỷ lệ lỗi / tỷ lệ call chậm",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BREAKER_WINDOW)),
+                new ProviderConfigProperty(CONFIG_BREAKER_FAILURE_RATE, "Circuit Breaker Failure Rate (%)",
+                        "Tỷ lệ lỗi (I/O, timeout, 5xx) làm breaker mở (0 = không mở vì lỗi)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BREAKER_FAILURE_RATE)),
+                new ProviderConfigProperty(CONFIG_BREAKER_SLOW_CALL, "Circuit Breaker Slow Call (ms)",
+                        "Request lâu hơn mức này được tính là call chậm",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BREAKER_SLOW_CALL_MS)),
+                new ProviderConfigProperty(CONFIG_BREAKER_SLOW_CALL_RATE, "Circuit Breaker Slow Call Rate (%)",
+                        "Tỷ lệ call chậm làm breaker mở (0 = không mở vì latency)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BREAKER_SLOW_CALL_RATE)),
+                new ProviderConfigProperty(CONFIG_BREAKER_OPEN, "Circuit Breaker Open (ms)",
+                        "Thời gian fail fast trước khi gửi requests thử (half-open)",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_BREAKER_OPEN_MS)),
+                new ProviderConfigProperty(CONFIG_RETRY_BUDGET, "Retry Budget (%)",
+                        "Retries / hedged requests tối đa theo % số requests (0 = tắt); chỉ áp dụng cho GET",
+                        ProviderConfigProperty.STRING_TYPE,
+                        String.valueOf(DEFAULT_RETRY_BUDGET_PERCENT)),
+                new ProviderConfigProperty(CONFIG_HEDGING, "Hedged Requests",
+                        "Gửi GET thứ hai khi request đầu chậm hơn p95 latency, dùng response về trước",
+                        ProviderConfigProperty.BOOLEAN_TYPE,
+                        "false"));
+    }
+
+    @Override
+    public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel config)
+            throws ComponentValidationException {
+        String apiUrl = config.getConfig().getFirst(CONFIG_API_URL);
+        if (apiUrl == null || apiUrl.isBlank()) {
+            throw new ComponentValidationException("API URL is required");
+        }
+        try {
+            if (getInt(config, CONFIG_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS) < 1
+                    || getInt(config, CONFIG_REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT_MS) < 1) {
+                throw new ComponentValidationException("Timeouts must be positive");
+            }
+            if (getInt(config, CONFIG_HTTP_THREADS, DEFAULT_HTTP_THREADS) < 1
+                    || getInt(config, CONFIG_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS) < 1) {
+                throw new ComponentValidationException("HTTP threads and max concurrent requests must be at least 1");
+            }
+            if (getInt(config, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL_SECONDS) < 0
+                    || getInt(config, CONFIG_CACHE_NEGATIVE_TTL, DEFAULT_CACHE_NEGATIVE_TTL_SECONDS) < 0
+                    || getInt(config, CONFIG_CACHE_REFRESH, DEFAULT_CACHE_REFRESH_SECONDS) < 0
+                    || getInt(config, CONFIG_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE) < 0) {
+                throw new ComponentValidationException("User cache settings must not be negative");
+            }
+            if (getInt(config, CONFIG_BATCH_WINDOW, DEFAULT_BATCH_WINDOW_MS) < 0
+                    || getInt(config, CONFIG_BATCH_MAX_SIZE, DEFAULT_BATCH_MAX_SIZE) < 1) {
+                throw new ComponentValidationException("Batch window must not be negative and batch max size must be at least 1");
+            }
+            if (getInt(config, CONFIG_BREAKER_WINDOW, DEFAULT_BREAKER_WINDOW) < 1
+                    || getInt(config, CONFIG_BREAKER_SLOW_CALL, DEFAULT_BREAKER_SLOW_CALL_MS) < 1
+                    || getInt(config, CONFIG_BREAKER_OPEN, DEFAULT_BREAKER_OPEN_MS) < 1) {
+                throw new ComponentValidationException("Circuit breaker window, slow call and open duration must be positive");
+            }
+            if (!isPercent(getInt(config, CONFIG_BREAKER_FAILURE_RATE, DEFAULT_BREAKER_FAILURE_RATE))
+                    || !isPercent(getInt(config, CONFIG_BREAKER_SLOW_CALL_RATE, DEFAULT_BREAKER_SLOW_CALL_RATE))
+                    || !isPercent(getInt(config, CONFIG_RETRY_BUDGET, DEFAULT_RETRY_BUDGET_PERCENT))) {
+                throw new ComponentValidationException("Circuit breaker rates and retry budget must be between 0 and 100");
+            }
+        } catch (NumberFormatException e) {
+            throw new ComponentValidationException("HTTP client and cache settings must be integers: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        // Client và cache mới được tạo với cấu hình mới ở lần create() tiếp theo
+        closeComponent(oldModel.getId());
+    }
+
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        closeComponent(model.getId());
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+        for (String componentId : List.copyOf(components.keySet())) {
+            closeComponent(componentId);
+        }
+        synchronized (this) {
+            if (cacheRefreshExecutor != null) {
+                cacheRefreshExecutor.shutdownNow();
+                cacheRefreshExecutor = null;
+            }
+        }
+    }
+
+    private static final class ComponentResources {
+        private final String fingerprint;
+        private final RemoteUserClient client;
+        private final RemoteUserCache userCache;
+        private final RemoteUserBatcher batcher;
+
+        private ComponentResources(String fingerprint, RemoteUserClient client, RemoteUserCache userCache,
+                                   RemoteUserBatcher batcher) {
+            this.fingerprint = fingerprint;
+            this.client = client;
+            this.userCache = userCache;
+            this.batcher = batcher;
+        }
+
+        private void close() {
+            userCache.close();
+            if (batcher != null) {
+                batcher.close();
+            }
+            client.close();
+        }
     }
 }
@@ -0,0 +1,77 @@
+package com.example.keycloak.provider;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Giới hạn số retries / hedged requests theo tỷ lệ với số requests (token bucket)
+ *
+ * - Mỗi request nạp ratio token, mỗi retry / hedge tiêu một token
+ * - Nạp thêm MIN_PER_SECOND token mỗi giây để component ít traffic vẫn retry được
+ * - Tối đa MAX_BALANCE token: API suy giảm kéo dài không bị nhân tải bởi retries
+ */
+public class RetryBudget {
+
+    private static final double MIN_PER_SECOND = 1.0;
+    private static final double MAX_BALANCE = 10.0;
+
+    private final double ratio;
+    private final boolean enabled;
+    private final LongAdder withdrawn = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    // Chỉ truy cập khi giữ lock
+    private double balance;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param percent retries tối đa tính theo % số requests (0 = không retry / hedge)
+     */
+    public RetryBudget(int percent) {
+        this.ratio = percent / 100.0;
+        this.enabled = percent > 0;
+    }
+
+    public synchronized void onRequest() {
+        if (enabled) {
+            refill();
+            balance = Math.min(MAX_BALANCE, balance + ratio);
+        }
+    }
+
+    /**
+     * Lấy một token cho retry / hedge
+     */
+    public synchronized boolean tryWithdraw() {
+        if (!enabled) {
+            return false;
+        }
+        refill();
+        if (balance < 1.0) {
+            exhausted.increment();
+            return false;
+        }
+        balance -= 1.0;
+        withdrawn.increment();
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        balance = Math.min(MAX_BALANCE, balance + (now - lastRefillNanos) / 1e9 * MIN_PER_SECOND);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Số retries / hedges đã được cho phép
+     */
+    public long getWithdrawnCount() {
+        return withdrawn.sum();
+    }
+
+    /**
+     * Số retries / hedges bị bỏ vì hết budget
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.keycloak.provider;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gộp các lời gọi đồng thời cùng key thành một lời gọi (single-flight)
+ *
+ * - Caller đầu tiên (leader) chạy call; các caller đến trong lúc call đang chạy chờ cùng kết quả
+ * - Lỗi (IOException, timeout, RuntimeException) của leader được trả cho mọi caller đang chờ,
+ *   không ai gọi lại ngay: API lỗi / chậm không bị nhân thêm N requests
+ * - Key được giải phóng khi call kết thúc: caller sau đó bắt đầu call mới
+ * - Caller bị interrupt chỉ dừng chờ, không huỷ call của leader
+ */
+final class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    interface Call<V> {
+        V call() throws IOException, InterruptedException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    V execute(K key, Call<V> call) throws IOException, InterruptedException {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+
+        try {
+            V value = call.call();
+            created.complete(value);
+            return value;
+        } catch (InterruptedException e) {
+            // Chỉ leader bị interrupt: các caller đang chờ nhận lỗi I/O thay vì interrupt giả
+            created.completeExceptionally(new InterruptedIOException("Remote call was interrupted"));
+            throw e;
+        } catch (IOException | RuntimeException | Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * Số lời gọi đã dùng chung kết quả của một call đang chạy
+     */
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
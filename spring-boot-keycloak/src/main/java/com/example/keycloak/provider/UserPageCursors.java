@@ -0,0 +1,66 @@
+package com.example.keycloak.provider;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * Keyset cursors cho phân trang search của CustomUserStorageProvider (pagingMode = keyset)
+ * 
+ * Performance:
+ * - Admin console / REST API phân trang bằng (first, max); OFFSET sâu buộc database
+ *   đọc rồi bỏ qua mọi dòng phía trước
+ * - Sau mỗi trang đầy, lưu (username, id) của dòng cuối theo (search, offset của trang kế tiếp);
+ *   request trang kế tiếp dùng keyset "WHERE (username, id) > cursor" thay cho OFFSET
+ * - Cursor không có (nhảy trang, hết hạn): fallback về LIMIT/OFFSET
+ * - Cursor có thể lệch nếu users được thêm / xoá giữa hai trang (giống mọi keyset pagination)
+ */
+final class UserPageCursors {
+    
+    private static final Duration CURSOR_TTL = Duration.ofMinutes(5);
+    private static final long MAX_CURSORS = 10000;
+    
+    private final Cache<String, Cursor> cursors = Caffeine.newBuilder()
+            .expireAfterWrite(CURSOR_TTL)
+            .maximumSize(MAX_CURSORS)
+            .build();
+    
+    /**
+     * Cursor của trang bắt đầu tại offset (null nếu chưa có)
+     */
+    Cursor get(String search, int offset) {
+        return cursors.getIfPresent(key(search, offset));
+    }
+    
+    /**
+     * Ghi nhận cursor khi trang [offset, offset + maxResults) được đọc đủ maxResults dòng
+     * (trang thiếu dòng là trang cuối, không có trang kế tiếp)
+     */
+    Stream<CustomUser> track(String search, int offset, Integer maxResults, Stream<CustomUser> page) {
+        if (maxResults == null || maxResults <= 0) {
+            return page;
+        }
+        int[] count = new int[1];
+        return page.peek(user -> {
+            if (++count[0] == maxResults) {
+                cursors.put(key(search, offset + maxResults), new Cursor(user.getUsername(), user.getId()));
+            }
+        });
+    }
+    
+    private static String key(String search, int offset) {
+        return (search == null ? "" : search.trim().toLowerCase()) + '\u0000' + offset;
+    }
+    
+    static final class Cursor {
+        final String username;
+        final String id;
+        
+        Cursor(String username, String id) {
+            this.username = username;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.keycloak.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Inverted trigram index trong bộ nhớ cho search users (username, email, first name, last name)
+ *
+ * Performance:
+ * - "LOWER(col) LIKE '%term%'" không dùng được B-tree index: mỗi search là full table scan;
+ *   index này trả lời substring search trong bộ nhớ, database chỉ còn fetch các ids của trang
+ * - Mỗi user là một doc id (int); posting list mỗi trigram là int[] tăng dần (không boxing)
+ * - Search: giao posting lists của các trigrams trong term (list ngắn nhất trước),
+ *   rồi kiểm tra lại substring trên các fields đã lowercase
+ * - Phân trang: chỉ chọn firstResult + maxResults docs nhỏ nhất theo (username, id) bằng heap
+ *   trên int[] - O(n log k), không boxing, không sort toàn bộ kết quả khi giữ read lock
+ * - Refresh tăng dần theo cột updated_at: user thay đổi nhận doc id mới, doc cũ bị đánh dấu xoá;
+ *   rebuild toàn bộ (off-lock, swap) khi doc đã xoá nhiều hơn doc còn sống
+ * - User bị xoá hẳn (DELETE) không có updated_at mới: sau mỗi refresh so số doc còn sống với
+ *   COUNT(*) của bảng, nhiều hơn thì rebuild; thêm rebuild định kỳ (REBUILD_INTERVAL) phòng khi
+ *   users mới chèn cùng lúc che mất số users đã xoá
+ *
+ * Giới hạn:
+ * - Term ngắn hơn 3 ký tự không có trigram: caller dùng SQL LIKE
+ * - User bị xoá hẳn (DELETE) vẫn nằm trong index tới lần refresh kế tiếp (count có thể dư,
+ *   trang có thể thiếu trong khoảng đó)
+ * - Thay đổi trong database có hiệu lực trong search sau tối đa một chu kỳ refresh
+ */
+public class UserSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    static final int MIN_TERM_LENGTH = 3;
+
+    /**
+     * Lùi watermark để không bỏ sót transaction commit muộn hơn thời điểm ghi updated_at
+     */
+    private static final long REFRESH_OVERLAP_MILLIS = 5000;
+
+    /**
+     * Tuổi tối đa của segment trước khi rebuild toàn bộ
+     */
+    private static final long REBUILD_INTERVAL_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private static final char FIELD_SEPARATOR = '\u0000';
+
+    private final CustomUserRepository repository;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile Segment segment;
+    private Timestamp watermark;
+    private long builtAt;
+
+    public UserSearchIndex(CustomUserRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Build index từ toàn bộ bảng users (gọi từ background thread)
+     */
+    public void rebuild() {
+        long start = System.nanoTime();
+        Timestamp now = repository.currentTimestamp();
+        Segment fresh = new Segment();
+        try (Stream<CustomUser> users = repository.streamUsers(null, null, null)) {
+            users.forEach(fresh::put);
+        }
+        lock.writeLock().lock();
+        try {
+            segment = fresh;
+            watermark = now;
+            builtAt = start;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("User search index built: {} users, {} trigrams in {} ms", fresh.liveCount(),
+                fresh.postings.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Áp dụng các users có updated_at sau lần refresh trước; rebuild nếu quá nhiều doc đã xoá,
+     * có user bị xoá hẳn khỏi database hoặc segment quá REBUILD_INTERVAL
+     */
+    public void refresh() {
+        Segment current = segment;
+        if (current == null || current.deletedCount() > current.liveCount()
+                || System.nanoTime() - builtAt > REBUILD_INTERVAL_NANOS) {
+            rebuild();
+            return;
+        }
+        Timestamp now = repository.currentTimestamp();
+        Timestamp since = new Timestamp(watermark.getTime() - REFRESH_OVERLAP_MILLIS);
+        List<CustomUser> changed;
+        try (Stream<CustomUser> users = repository.streamUsersUpdatedSince(since)) {
+            changed = users.toList();
+        }
+        lock.writeLock().lock();
+        try {
+            for (CustomUser user : changed) {
+                current.put(user);
+            }
+            watermark = now;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!changed.isEmpty()) {
+            log.debug("User search index refreshed: {} changed users", changed.size());
+        }
+
+        int stored = repository.count();
+        if (current.liveCount() > stored) {
+            log.debug("User search index has {} users, database has {}: rebuilding", current.liveCount(), stored);
+            rebuild();
+        }
+    }
+
+    public boolean isReady() {
+        return segment != null;
+    }
+
+    /**
+     * Index có trả lời được search này không (index đã build và term đủ dài)
+     */
+    public boolean supports(String search) {
+        return isReady() && normalize(search) != null;
+    }
+
+    /**
+     * Ids của một trang users khớp search, sắp xếp theo (username, id) như SQL search
+     *
+     * @param firstResult vị trí bắt đầu (âm = 0)
+     * @param maxResults  số ids tối đa (âm = tất cả)
+     */
+    public List<String> search(String search, int firstResult, int maxResults) {
+        String term = normalize(search);
+        lock.readLock().lock();
+        try {
+            Segment current = segment;
+            int[] docs = current.match(term);
+            int from = Math.min(Math.max(firstResult, 0), docs.length);
+            int to = maxResults < 0 ? docs.length : (int) Math.min(docs.length, (long) from + maxResults);
+            int[] first = current.smallest(docs, to);
+            List<String> ids = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                ids.add(current.userIds.get(first[i]));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(String search) {
+        String term = normalize(search);
+        lock.readLock().lock();
+        try {
+            return segment.match(term).length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Term đã lowercase, hoặc null nếu không dùng được index (rỗng, "*", ngắn hơn 3 ký tự)
+     */
+    private static String normalize(String search) {
+        if (search == null) {
+            return null;
+        }
+        String term = search.trim().toLowerCase(Locale.ROOT);
+        if (term.length() < MIN_TERM_LENGTH || "*".equals(term) || term.indexOf(FIELD_SEPARATOR) >= 0) {
+            return null;
+        }
+        return term;
+    }
+
+    private static long trigram(CharSequence text, int offset) {
+        return (long) text.charAt(offset) << 32 | (long) text.charAt(offset + 1) << 16 | text.charAt(offset + 2);
+    }
+
+    /**
+     * Docs + posting lists; chỉ thay đổi dưới write lock (hoặc trước khi được publish)
+     */
+    private static final class Segment {
+
+        private final List<String> userIds = new ArrayList<>();
+        private final List<String> usernames = new ArrayList<>();
+        private final List<String> haystacks = new ArrayList<>();
+        private final Map<String, Integer> docByUserId = new HashMap<>();
+        private final BitSet deleted = new BitSet();
+        private final Map<Long, Postings> postings = new HashMap<>();
+        private int deletedCount;
+
+        private void put(CustomUser user) {
+            String haystack = haystack(user);
+            Integer previous = docByUserId.get(user.getId());
+            if (previous != null) {
+                if (haystacks.get(previous).equals(haystack)) {
+                    return;
+                }
+                deleted.set(previous);
+                deletedCount++;
+            }
+            int doc = userIds.size();
+            userIds.add(user.getId());
+            usernames.add(user.getUsername() != null ? user.getUsername() : "");
+            haystacks.add(haystack);
+            docByUserId.put(user.getId(), doc);
+
+            for (int i = 0; i + MIN_TERM_LENGTH <= haystack.length(); i++) {
+                postings.computeIfAbsent(trigram(haystack, i), key -> new Postings()).add(doc);
+            }
+        }
+
+        private int[] match(String term) {
+            int count = term.length() - MIN_TERM_LENGTH + 1;
+            Postings[] lists = new Postings[count];
+            for (int i = 0; i < count; i++) {
+                Postings list = postings.get(trigram(term, i));
+                if (list == null) {
+                    return new int[0];
+                }
+                lists[i] = list;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+            int[] candidates = Arrays.copyOf(lists[0].docs, lists[0].size);
+            int size = candidates.length;
+            for (int i = 1; i < lists.length && size > 0; i++) {
+                size = lists[i].retainAll(candidates, size);
+            }
+
+            int matched = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = candidates[i];
+                if (!deleted.get(doc) && haystacks.get(doc).contains(term)) {
+                    candidates[matched++] = doc;
+                }
+            }
+            return Arrays.copyOf(candidates, matched);
+        }
+
+        /**
+         * k docs nhỏ nhất theo (username, id), đã sắp xếp: max-heap k phần tử rồi heapsort tại chỗ
+         */
+        private int[] smallest(int[] docs, int k) {
+            int[] heap = new int[k];
+            if (k == 0) {
+                return heap;
+            }
+            int size = 0;
+            for (int doc : docs) {
+                if (size < k) {
+                    heap[size] = doc;
+                    siftUp(heap, size++);
+                } else if (compare(doc, heap[0]) < 0) {
+                    heap[0] = doc;
+                    siftDown(heap, 0, size);
+                }
+            }
+            for (int end = size - 1; end > 0; end--) {
+                int max = heap[0];
+                heap[0] = heap[end];
+                heap[end] = max;
+                siftDown(heap, 0, end);
+            }
+            return heap;
+        }
+
+        private void siftUp(int[] heap, int index) {
+            int doc = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (compare(doc, heap[parent]) <= 0) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                index = parent;
+            }
+            heap[index] = doc;
+        }
+
+        private void siftDown(int[] heap, int index, int size) {
+            int doc = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && compare(heap[child + 1], heap[child]) > 0) {
+                    child++;
+                }
+                if (compare(doc, heap[child]) >= 0) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = doc;
+        }
+
+        private int compare(int left, int right) {
+            int result = usernames.get(left).compareTo(usernames.get(right));
+            return result != 0 ? result : userIds.get(left).compareTo(userIds.get(right));
+        }
+
+        private int liveCount() {
+            return userIds.size() - deletedCount;
+        }
+
+        private int deletedCount() {
+            return deletedCount;
+        }
+
+        private static String haystack(CustomUser user) {
+            StringBuilder haystack = new StringBuilder();
+            for (String field : new String[]{user.getUsername(), user.getEmail(),
+                    user.getFirstName(), user.getLastName()}) {
+                if (haystack.length() > 0) {
+                    haystack.append(FIELD_SEPARATOR);
+                }
+                if (field != null) {
+                    haystack.append(field.toLowerCase(Locale.ROOT));
+                }
+            }
+            return haystack.toString();
+        }
+    }
+
+    /**
+     * Posting list: doc ids tăng dần trong int[] tự giãn
+     */
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+        private int size;
+
+        private void add(int doc) {
+            // Doc ids tăng dần: trigram lặp lại trong cùng doc chỉ cần so với phần tử cuối
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size + (size >> 1));
+            }
+            docs[size++] = doc;
+        }
+
+        /**
+         * Giữ lại trong candidates[0..size) các docs có trong list này (cả hai đều tăng dần)
+         *
+         * @return số candidates còn lại
+         */
+        private int retainAll(int[] candidates, int size) {
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < size && j < this.size; i++) {
+                int doc = candidates[i];
+                while (j < this.size && docs[j] < doc) {
+                    j++;
+                }
+                if (j < this.size && docs[j] == doc) {
+                    candidates[kept++] = doc;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.example.keycloak.service;
 
 import com.example.keycloak.dto.LoginRequest;
 import com.example.keycloak.dto.LoginResponse;
+import com.example.keycloak.exception.ServiceOverloadedException;
 import com.example.keycloak.strategy.AuthenticationException;
 import com.example.keycloak.strategy.AuthenticationStrategy;
 import lombok.RequiredArgsConstructor;
@@ -16,6 +17,7 @@ import java.util.List;
  * 
  * Bank-Level Security:
  * - Tích hợp MFA verification sau khi authenticate thành công
+ * - Số login đồng thời giới hạn bởi LoginConcurrencyLimiter (503 khi quá tải)
  */
 @Slf4j
 @Service
@@ -24,6 +26,7 @@ public class AuthenticationService {
     
     private final List<AuthenticationStrategy> authenticationStrategies;
     private final MfaService mfaService;
+    private final LoginConcurrencyLimiter loginConcurrencyLimiter;
     
     /**
      * Authenticate user với strategy cụ thể
@@ -32,8 +35,25 @@ public class AuthenticationService {
      * @param authType Loại authentication (database, federation, etc.)
      * @return LoginResponse
      * @throws AuthenticationException nếu authentication thất bại
+     * @throws ServiceOverloadedException nếu quá nhiều login đang chạy
      */
     public LoginResponse authenticate(LoginRequest request, String authType) throws AuthenticationException {
+        long start = loginConcurrencyLimiter.acquire();
+        boolean dropped = true;
+        try {
+            LoginResponse response = doAuthenticate(request, authType);
+            dropped = false;
+            return response;
+        } catch (AuthenticationException e) {
+            // Sai credential / MFA vẫn là một lần xử lý bình thường (latency hợp lệ)
+            dropped = false;
+            throw e;
+        } finally {
+            loginConcurrencyLimiter.release(start, dropped);
+        }
+    }
+    
+    private LoginResponse doAuthenticate(LoginRequest request, String authType) throws AuthenticationException {
         AuthenticationStrategy strategy = findStrategy(authType);
         
         if (strategy == null) {
@@ -0,0 +1,244 @@
+package com.example.keycloak.service;
+
+import com.example.keycloak.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limiter cho login (gradient, theo latency đo được)
+ *
+ * Bank-Level Security:
+ * - Giới hạn số login đang chạy đồng thời: Keycloak / LDAP / BCrypt chậm không chiếm
+ *   hết Tomcat workers của các API đã authenticated
+ * - Limit tự điều chỉnh mỗi sample window: gradient = tolerance * RTT dài hạn / RTT của window;
+ *   latency tăng thì limit giảm, latency ổn định thì limit tăng thêm ~sqrt(limit)
+ * - Hàng đợi ngắn, FIFO, có deadline (max-wait); đầy hoặc hết hạn thì 503 ngay
+ * - Metrics: auth.concurrency.limit / inflight / queue, auth.concurrency.rejected
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LoginConcurrencyLimiter {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${security.login-concurrency.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${security.login-concurrency.min-limit:4}")
+    private int minLimit;
+
+    @Value("${security.login-concurrency.max-limit:100}")
+    private int maxLimit;
+
+    @Value("${security.login-concurrency.queue-size:50}")
+    private int queueSize;
+
+    @Value("${security.login-concurrency.max-wait:500ms}")
+    private Duration maxWait;
+
+    /**
+     * RTT hiện tại được phép cao hơn RTT dài hạn bao nhiêu lần trước khi giảm limit
+     */
+    @Value("${security.login-concurrency.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    @Value("${security.login-concurrency.smoothing:0.2}")
+    private double smoothing;
+
+    /**
+     * Thời gian tối thiểu của một sample window (limit cập nhật tối đa một lần mỗi window)
+     */
+    @Value("${security.login-concurrency.window:1s}")
+    private Duration window;
+
+    /**
+     * RTT dài hạn (baseline) = EMA trên ~600 windows
+     */
+    private static final double LONG_RTT_ALPHA = 2.0 / (600 + 1);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition permitAvailable = lock.newCondition();
+
+    private int inFlight;
+    private int waiting;
+    private double estimatedLimit;
+    private volatile int limit;
+    private double longRttNanos;
+
+    private long windowStartNanos;
+    private long windowRttSum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    private Counter rejectedQueueFull;
+    private Counter rejectedTimeout;
+
+    @PostConstruct
+    public void init() {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalStateException("Invalid login concurrency limits: min=" + minLimit + ", max=" + maxLimit);
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        limit = (int) estimatedLimit;
+        windowStartNanos = System.nanoTime();
+
+        Gauge.builder("auth.concurrency.limit", this, LoginConcurrencyLimiter::getLimit)
+                .description("Current adaptive login concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("auth.concurrency.inflight", this, LoginConcurrencyLimiter::getInFlight)
+                .description("Logins currently executing")
+                .register(meterRegistry);
+        Gauge.builder("auth.concurrency.queue", this, LoginConcurrencyLimiter::getQueueDepth)
+                .description("Logins waiting for a permit")
+                .register(meterRegistry);
+        rejectedQueueFull = Counter.builder("auth.concurrency.rejected").tag("reason", "queue_full")
+                .register(meterRegistry);
+        rejectedTimeout = Counter.builder("auth.concurrency.rejected").tag("reason", "timeout")
+                .register(meterRegistry);
+
+        log.info("Login concurrency limiter: limit={} (min={}, max={}), queue={}, maxWait={}",
+                limit, minLimit, maxLimit, queueSize, maxWait);
+    }
+
+    /**
+     * Lấy permit, chờ tối đa max-wait trong hàng đợi
+     *
+     * @return thời điểm bắt đầu (System.nanoTime) để truyền vào release
+     * @throws ServiceOverloadedException nếu hàng đợi đầy hoặc hết deadline
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            if (inFlight < limit && waiting == 0) {
+                inFlight++;
+                return System.nanoTime();
+            }
+            if (waiting >= queueSize) {
+                rejectedQueueFull.increment();
+                throw new ServiceOverloadedException("Login capacity exceeded, please retry shortly");
+            }
+
+            waiting++;
+            try {
+                long remaining = maxWait.toNanos();
+                while (inFlight >= limit) {
+                    if (remaining <= 0) {
+                        rejectedTimeout.increment();
+                        throw new ServiceOverloadedException("Login capacity exceeded, please retry shortly");
+                    }
+                    remaining = permitAvailable.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceOverloadedException("Interrupted while waiting for login capacity");
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Trả permit và cập nhật limit theo RTT của request
+     *
+     * @param startNanos giá trị trả về từ acquire
+     * @param dropped    request lỗi hạ tầng (không phải sai credential): giảm limit
+     */
+    public void release(long startNanos, boolean dropped) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+            inFlight--;
+            windowRttSum += now - startNanos;
+            windowSamples++;
+            windowDropped |= dropped;
+
+            if (now - windowStartNanos >= window.toNanos() && windowSamples >= MIN_WINDOW_SAMPLES) {
+                updateLimit((double) windowRttSum / windowSamples, windowMaxInFlight, windowDropped);
+                windowStartNanos = now;
+                windowRttSum = 0;
+                windowSamples = 0;
+                windowMaxInFlight = inFlight;
+                windowDropped = false;
+            }
+            permitAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateLimit(double shortRttNanos, int maxInFlight, boolean dropped) {
+        double newLimit;
+        if (dropped) {
+            newLimit = estimatedLimit / 2;
+        } else {
+            longRttNanos = longRttNanos == 0
+                    ? shortRttNanos
+                    : longRttNanos + (shortRttNanos - longRttNanos) * LONG_RTT_ALPHA;
+            // Baseline trôi lên khi tải kéo dài: đưa RTT dài hạn về gần RTT hiện tại để phục hồi
+            if (longRttNanos > 2.0 * shortRttNanos) {
+                longRttNanos = longRttNanos * 0.95;
+            }
+            // Ít request hơn một nửa limit: không có tín hiệu để tăng limit
+            if (maxInFlight < estimatedLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        }
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        int rounded = (int) estimatedLimit;
+        if (rounded != limit) {
+            if (rounded > limit) {
+                // Limit tăng: đánh thức thêm waiters
+                permitAvailable.signalAll();
+            }
+            log.debug("Login concurrency limit {} -> {} (rtt={}ms, longRtt={}ms)", limit, rounded,
+                    TimeUnit.NANOSECONDS.toMillis((long) shortRttNanos),
+                    TimeUnit.NANOSECONDS.toMillis((long) longRttNanos));
+            limit = rounded;
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.keycloak.service;
+
+import com.example.keycloak.exception.ServiceOverloadedException;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * BCrypt hashing / verification trên worker pool riêng
+ *
+ * Bank-Level Security:
+ * - BCrypt work factor 12 tốn ~250 ms CPU mỗi lần: chạy trên số workers = số cores thay vì
+ *   trên request threads, login flood không chiếm hết Tomcat / Keycloak workers
+ * - Hàng đợi có giới hạn, chia theo client (IP): workers lấy việc xoay vòng giữa các clients,
+ *   một IP gửi hàng loạt login chỉ chiếm một lượt như các IP khác; mỗi client có hạn mức riêng
+ * - Deadline: caller chờ tối đa max-wait để việc bắt đầu được tính; quá hạn thì việc bị gỡ khỏi
+ *   hàng đợi và caller nhận ServiceOverloadedException ngay (request thread bị giữ tối đa
+ *   max-wait + một lần tính), không tốn CPU cho request mà client đã bỏ cuộc
+ * - Thời gian chờ hàng đợi và thời gian tính được báo qua Metrics
+ *   (Micrometer ở Spring Boot, JMX ở Keycloak provider)
+ *
+ * Class không phụ thuộc Spring: dùng chung cho Spring Boot app và Keycloak provider.
+ */
+public class PasswordHashingService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashingService.class);
+
+    public static final int BCRYPT_WORK_FACTOR = 12;
+
+    private static final String UNKNOWN_CLIENT = "unknown";
+
+    /**
+     * Nhận số liệu của mỗi lần hashing
+     */
+    public interface Metrics {
+
+        void completed(long queueWaitNanos, long computeNanos);
+
+        /**
+         * @param reason queue_full | client_queue_full | timeout
+         */
+        void rejected(String reason);
+
+        Metrics NONE = new Metrics() {
+            @Override
+            public void completed(long queueWaitNanos, long computeNanos) {
+            }
+
+            @Override
+            public void rejected(String reason) {
+            }
+        };
+    }
+
+    private final int maxQueued;
+    private final int maxQueuedPerClient;
+    private final long maxWaitNanos;
+    private final Metrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taskAvailable = lock.newCondition();
+    /**
+     * Hàng đợi theo client; thứ tự của map là thứ tự xoay vòng
+     */
+    private final LinkedHashMap<String, ArrayDeque<Task<?>>> queues = new LinkedHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private int queued;
+    private boolean closed;
+
+    /**
+     * @param threads            số workers (<= 0: số cores)
+     * @param maxQueued          tổng số việc chờ tối đa
+     * @param maxQueuedPerClient số việc chờ tối đa của một client
+     * @param maxWait            thời gian chờ tối đa trong hàng đợi
+     */
+    public PasswordHashingService(int threads, int maxQueued, int maxQueuedPerClient, Duration maxWait,
+                                  Metrics metrics) {
+        if (maxQueued < 1 || maxQueuedPerClient < 1) {
+            throw new IllegalArgumentException("Password hashing queue sizes must be positive");
+        }
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerClient = maxQueuedPerClient;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.metrics = metrics;
+
+        int workerCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "password-hashing-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("Password hashing pool started: workers={}, queue={}, perClient={}, maxWait={}",
+                workerCount, maxQueued, maxQueuedPerClient, maxWait);
+    }
+
+    /**
+     * So khớp password với BCrypt hash (constant-time trong BCrypt.checkpw)
+     *
+     * @param clientKey khoá fairness (IP client); null = "unknown"
+     * @throws IllegalArgumentException   nếu hash không phải BCrypt
+     * @throws ServiceOverloadedException nếu hàng đợi đầy hoặc quá max-wait
+     */
+    public boolean verify(String plainPassword, String hashedPassword, String clientKey) {
+        return submit(clientKey, () -> BCrypt.checkpw(plainPassword, hashedPassword));
+    }
+
+    /**
+     * Hash password với BCrypt work factor 12
+     *
+     * @throws ServiceOverloadedException nếu hàng đợi đầy hoặc quá max-wait
+     */
+    public String hash(String plainPassword, String clientKey) {
+        return submit(clientKey, () -> BCrypt.hashpw(plainPassword, BCrypt.gensalt(BCRYPT_WORK_FACTOR)));
+    }
+
+    private <T> T submit(String clientKey, Supplier<T> work) {
+        String client = clientKey != null ? clientKey : UNKNOWN_CLIENT;
+        Task<T> task = new Task<>(work, System.nanoTime());
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Password hashing service is closed");
+            }
+            if (queued >= maxQueued) {
+                metrics.rejected("queue_full");
+                throw new ServiceOverloadedException("Password verification capacity exceeded, please retry shortly");
+            }
+            ArrayDeque<Task<?>> queue = queues.computeIfAbsent(client, key -> new ArrayDeque<>());
+            if (queue.size() >= maxQueuedPerClient) {
+                metrics.rejected("client_queue_full");
+                throw new ServiceOverloadedException("Too many concurrent password verifications from client");
+            }
+            queue.addLast(task);
+            queued++;
+            taskAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            long remaining = task.enqueuedNanos + maxWaitNanos - System.nanoTime();
+            try {
+                return task.result.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (abandon(client, task)) {
+                    metrics.rejected("timeout");
+                    throw new ServiceOverloadedException("Password verification capacity exceeded, please retry shortly");
+                }
+                // Worker đã bắt đầu tính: chờ kết quả (tối đa một lần tính)
+                return task.result.get();
+            }
+        } catch (InterruptedException e) {
+            abandon(client, task);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Interrupted while waiting for password verification");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Gỡ việc chưa được worker nhận khỏi hàng đợi; false nếu worker đã bắt đầu tính
+     */
+    private boolean abandon(String client, Task<?> task) {
+        if (!task.claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        task.result.cancel(false);
+        lock.lock();
+        try {
+            ArrayDeque<Task<?>> queue = queues.get(client);
+            if (queue != null && queue.remove(task)) {
+                queued--;
+                if (queue.isEmpty()) {
+                    queues.remove(client);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task<?> task;
+            lock.lock();
+            try {
+                while (queued == 0 && !closed) {
+                    taskAvailable.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                task = nextTask();
+            } finally {
+                lock.unlock();
+            }
+            run(task);
+        }
+    }
+
+    /**
+     * Việc đầu tiên của client kế tiếp; client được đưa xuống cuối vòng (gọi khi giữ lock)
+     */
+    private Task<?> nextTask() {
+        Iterator<Map.Entry<String, ArrayDeque<Task<?>>>> iterator = queues.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<Task<?>>> entry = iterator.next();
+        iterator.remove();
+        ArrayDeque<Task<?>> queue = entry.getValue();
+        Task<?> task = queue.pollFirst();
+        if (!queue.isEmpty()) {
+            queues.put(entry.getKey(), queue);
+        }
+        queued--;
+        return task;
+    }
+
+    private <T> void run(Task<T> task) {
+        if (!task.claimed.compareAndSet(false, true)) {
+            // Caller đã bỏ (quá max-wait hoặc bị interrupt)
+            return;
+        }
+        long start = System.nanoTime();
+        long queueWait = start - task.enqueuedNanos;
+        try {
+            task.result.complete(task.work.get());
+        } catch (RuntimeException e) {
+            task.result.completeExceptionally(e);
+        } finally {
+            metrics.completed(queueWait, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Số việc đang chờ
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Dừng workers; việc đang chờ bị từ chối
+     */
+    @Override
+    public void close() {
+        Map<String, ArrayDeque<Task<?>>> pending;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new HashMap<>(queues);
+            queues.clear();
+            queued = 0;
+            taskAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (ArrayDeque<Task<?>> queue : pending.values()) {
+            for (Task<?> task : queue) {
+                task.result.completeExceptionally(new IllegalStateException("Password hashing service is closed"));
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private final Supplier<T> work;
+        private final long enqueuedNanos;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        /**
+         * Worker bắt đầu tính hoặc caller bỏ việc, ai đặt trước thắng
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Task(Supplier<T> work, long enqueuedNanos) {
+            this.work = work;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.keycloak.service;
+
+import com.example.keycloak.config.UserImportProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.mindrot.jbcrypt.BCrypt;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk import users (CSV / NDJSON) vào bảng users của custom user database
+ *
+ * Performance:
+ * - Đọc file dạng stream theo batch, không load toàn bộ file
+ * - BCrypt hash song song trên ForkJoinPool riêng; batch kế tiếp được hash trong lúc
+ *   batch hiện tại đang được ghi (pipeline đọc / hash / ghi)
+ * - JDBC batch insert, commit mỗi commit-interval records
+ * - Password đã là BCrypt hash ($2a$ / $2b$ / $2y$) được giữ nguyên, không hash lại
+ *
+ * Resume:
+ * - Checkpoint (số records đã xử lý) lưu trong bảng user_import_checkpoints,
+ *   cập nhật trong cùng transaction với dữ liệu: sau khi bị dừng, chạy lại cùng job id
+ *   sẽ bỏ qua các records đã commit mà không hash / ghi lại
+ * - Record không hợp lệ (thiếu username / password, JSON lỗi) được log và bỏ qua
+ * - Record vi phạm constraint (username / id đã tồn tại, trùng trong file): batch đó được ghi lại
+ *   từng record với savepoint, record vi phạm được log USER_IMPORT_INVALID và bỏ qua, job không
+ *   dừng lại ở cùng checkpoint
+ */
+@Slf4j
+public class UserImportJob {
+
+    private static final String INSERT_USER = "INSERT INTO users "
+            + "(id, username, email, password, first_name, last_name, enabled) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String CREATE_CHECKPOINTS = "CREATE TABLE IF NOT EXISTS user_import_checkpoints ("
+            + "job_id VARCHAR(255) PRIMARY KEY, records_done BIGINT NOT NULL)";
+
+    private static final int BCRYPT_WORK_FACTOR = PasswordHashingService.BCRYPT_WORK_FACTOR;
+
+    private final DataSource dataSource;
+    private final UserImportProperties properties;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public UserImportJob(DataSource dataSource, UserImportProperties properties) {
+        this.dataSource = dataSource;
+        this.properties = properties;
+    }
+
+    /**
+     * Kết quả import
+     *
+     * @param resumedFrom số records đã commit trước lần chạy này (bỏ qua)
+     * @param imported    số users được ghi trong lần chạy này
+     * @param invalid     số records không hợp lệ / trùng username hoặc id bị bỏ qua
+     */
+    public record Result(long resumedFrom, long imported, long invalid) {
+    }
+
+    public Result run() throws IOException, SQLException, InterruptedException {
+        Path path = Path.of(properties.getFile());
+        String jobId = properties.getJobId() != null ? properties.getJobId() : path.getFileName().toString();
+        boolean ndjson = isNdjson(path);
+        int batchSize = Math.max(1, properties.getBatchSize());
+        int commitInterval = Math.max(batchSize, properties.getCommitInterval());
+        int parallelism = properties.getParallelism() > 0
+                ? properties.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool hashingPool = new ForkJoinPool(parallelism);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            long done = readCheckpoint(connection, jobId);
+            connection.commit();
+
+            RecordReader records = new RecordReader(reader, ndjson);
+            if (done > 0) {
+                records.skip(done);
+                log.info("USER_IMPORT_RESUME | job={} | skipped={}", jobId, done);
+            }
+
+            long start = System.nanoTime();
+            long resumedFrom = done;
+            long imported = 0;
+            long invalid = 0;
+            long sinceCommit = 0;
+
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_USER)) {
+                List<ImportRecord> batch = records.next(batchSize);
+                ForkJoinTask<List<ImportRecord>> hashing = hash(hashingPool, batch);
+                while (!batch.isEmpty()) {
+                    // Hash batch kế tiếp trong lúc ghi batch hiện tại
+                    List<ImportRecord> nextBatch = records.next(batchSize);
+                    ForkJoinTask<List<ImportRecord>> nextHashing = hash(hashingPool, nextBatch);
+
+                    List<ImportRecord> rows = new ArrayList<>(batch.size());
+                    for (ImportRecord record : join(hashing)) {
+                        if (record.error != null) {
+                            invalid++;
+                            log.warn("USER_IMPORT_INVALID | job={} | record={} | reason={}",
+                                    jobId, record.index + 1, record.error);
+                            continue;
+                        }
+                        record.id = record.id != null ? record.id : UUID.randomUUID().toString();
+                        rows.add(record);
+                    }
+                    int rejected = insert(connection, insert, rows, jobId);
+                    imported += rows.size() - rejected;
+                    invalid += rejected;
+                    done += batch.size();
+                    sinceCommit += batch.size();
+
+                    if (sinceCommit >= commitInterval || nextBatch.isEmpty()) {
+                        writeCheckpoint(connection, jobId, done);
+                        connection.commit();
+                        sinceCommit = 0;
+                        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+                        log.info("USER_IMPORT_PROGRESS | job={} | records={} | imported={} | invalid={} | rate={}/s",
+                                jobId, done, imported, invalid, (long) ((done - resumedFrom) / seconds));
+                    }
+                    batch = nextBatch;
+                    hashing = nextHashing;
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+
+            log.info("USER_IMPORT_DONE | job={} | records={} | imported={} | invalid={} | seconds={}",
+                    jobId, done, imported, invalid, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+            return new Result(resumedFrom, imported, invalid);
+        } finally {
+            hashingPool.shutdownNow();
+        }
+    }
+
+    private boolean isNdjson(Path path) {
+        switch (properties.getFormat()) {
+            case CSV:
+                return false;
+            case NDJSON:
+                return true;
+            default:
+                String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json");
+        }
+    }
+
+    private static ForkJoinTask<List<ImportRecord>> hash(ForkJoinPool pool, List<ImportRecord> batch) {
+        return pool.submit(() -> batch.parallelStream().map(UserImportJob::hashPassword).toList());
+    }
+
+    private static ImportRecord hashPassword(ImportRecord record) {
+        if (record.error == null && !isBcryptHash(record.password)) {
+            record.password = BCrypt.hashpw(record.password, BCrypt.gensalt(BCRYPT_WORK_FACTOR));
+        }
+        return record;
+    }
+
+    private static boolean isBcryptHash(String password) {
+        return password.length() == 60
+                && (password.startsWith("$2a$") || password.startsWith("$2b$") || password.startsWith("$2y$"));
+    }
+
+    private static List<ImportRecord> join(ForkJoinTask<List<ImportRecord>> task) throws InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed during import", e.getCause());
+        }
+    }
+
+    /**
+     * Ghi batch bằng JDBC batch; nếu có record vi phạm constraint thì rollback về trước batch
+     * và ghi lại từng record, bỏ qua records vi phạm
+     *
+     * @return số records bị bỏ qua
+     */
+    private static int insert(Connection connection, PreparedStatement insert, List<ImportRecord> rows,
+                              String jobId) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        Savepoint beforeBatch = connection.setSavepoint();
+        try {
+            for (ImportRecord record : rows) {
+                bind(insert, record);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            return 0;
+        } catch (BatchUpdateException e) {
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            insert.clearBatch();
+            connection.rollback(beforeBatch);
+        }
+
+        int rejected = 0;
+        for (ImportRecord record : rows) {
+            Savepoint beforeRecord = connection.setSavepoint();
+            try {
+                bind(insert, record);
+                insert.executeUpdate();
+                connection.releaseSavepoint(beforeRecord);
+            } catch (SQLException e) {
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+                connection.rollback(beforeRecord);
+                rejected++;
+                log.warn("USER_IMPORT_INVALID | job={} | record={} | reason=duplicate username or id ({})",
+                        jobId, record.index + 1, record.username);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * SQLState class 23: integrity constraint violation (unique / primary key)
+     */
+    private static boolean isConstraintViolation(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (current instanceof SQLIntegrityConstraintViolationException
+                    || (current.getSQLState() != null && current.getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void bind(PreparedStatement insert, ImportRecord record) throws SQLException {
+        insert.setString(1, record.id);
+        insert.setString(2, record.username);
+        insert.setString(3, record.email);
+        insert.setString(4, record.password);
+        insert.setString(5, record.firstName);
+        insert.setString(6, record.lastName);
+        insert.setBoolean(7, record.enabled);
+    }
+
+    private static long readCheckpoint(Connection connection, String jobId) throws SQLException {
+        try (PreparedStatement create = connection.prepareStatement(CREATE_CHECKPOINTS)) {
+            create.execute();
+        }
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT records_done FROM user_import_checkpoints WHERE job_id = ?")) {
+            select.setString(1, jobId);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void writeCheckpoint(Connection connection, String jobId, long done) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE user_import_checkpoints SET records_done = ? WHERE job_id = ?")) {
+            update.setLong(1, done);
+            update.setString(2, jobId);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO user_import_checkpoints (job_id, records_done) VALUES (?, ?)")) {
+            insert.setString(1, jobId);
+            insert.setLong(2, done);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Một user đọc từ file; password được thay bằng BCrypt hash sau bước hashing
+     */
+    private static final class ImportRecord {
+        private long index;
+        private String id;
+        private String username;
+        private String email;
+        private String password;
+        private String firstName;
+        private String lastName;
+        private boolean enabled = true;
+        private String error;
+    }
+
+    /**
+     * Đọc records tuần tự từ CSV (header ở dòng đầu) hoặc NDJSON; bỏ qua dòng trống
+     */
+    private final class RecordReader {
+
+        private final BufferedReader reader;
+        private final boolean ndjson;
+        private Map<String, Integer> columns;
+        private long index;
+
+        private RecordReader(BufferedReader reader, boolean ndjson) {
+            this.reader = reader;
+            this.ndjson = ndjson;
+        }
+
+        private void skip(long count) throws IOException {
+            while (index < count && nextLine() != null) {
+                index++;
+            }
+        }
+
+        private List<ImportRecord> next(int count) throws IOException {
+            List<ImportRecord> batch = new ArrayList<>(count);
+            String line;
+            while (batch.size() < count && (line = nextLine()) != null) {
+                ImportRecord record = ndjson ? parseJson(line) : parseCsv(line);
+                record.index = index++;
+                if (record.error == null && (record.username == null || record.username.isBlank())) {
+                    record.error = "missing username";
+                } else if (record.error == null && (record.password == null || record.password.isEmpty())) {
+                    record.error = "missing password";
+                }
+                batch.add(record);
+            }
+            return batch;
+        }
+
+        private String nextLine() throws IOException {
+            if (!ndjson && columns == null) {
+                String header = reader.readLine();
+                if (header == null) {
+                    return null;
+                }
+                columns = new HashMap<>();
+                List<String> names = splitCsv(header.startsWith("\uFEFF") ? header.substring(1) : header);
+                for (int i = 0; i < names.size(); i++) {
+                    columns.put(normalizeField(names.get(i)), i);
+                }
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        private ImportRecord parseCsv(String line) {
+            List<String> values = splitCsv(line);
+            ImportRecord record = new ImportRecord();
+            record.id = csvValue(values, "id");
+            record.username = csvValue(values, "username");
+            record.email = csvValue(values, "email");
+            record.password = csvValue(values, "password");
+            record.firstName = csvValue(values, "firstname");
+            record.lastName = csvValue(values, "lastname");
+            String enabled = csvValue(values, "enabled");
+            record.enabled = enabled == null || Boolean.parseBoolean(enabled) || "1".equals(enabled);
+            return record;
+        }
+
+        private String csvValue(List<String> values, String field) {
+            Integer column = columns.get(field);
+            if (column == null || column >= values.size()) {
+                return null;
+            }
+            String value = values.get(column);
+            return value.isEmpty() ? null : value;
+        }
+
+        private ImportRecord parseJson(String line) {
+            ImportRecord record = new ImportRecord();
+            try {
+                JsonNode node = objectMapper.readTree(line);
+                Map<String, JsonNode> fields = new HashMap<>();
+                node.fields().forEachRemaining(field -> fields.put(normalizeField(field.getKey()), field.getValue()));
+                record.id = jsonText(fields, "id");
+                record.username = jsonText(fields, "username");
+                record.email = jsonText(fields, "email");
+                record.password = jsonText(fields, "password");
+                record.firstName = jsonText(fields, "firstname");
+                record.lastName = jsonText(fields, "lastname");
+                JsonNode enabled = fields.get("enabled");
+                record.enabled = enabled == null || enabled.isNull() || enabled.asBoolean();
+            } catch (JsonProcessingException e) {
+                record.error = "invalid JSON: " + e.getOriginalMessage();
+            }
+            return record;
+        }
+
+        private String jsonText(Map<String, JsonNode> fields, String field) {
+            JsonNode value = fields.get(field);
+            return value == null || value.isNull() ? null : value.asText();
+        }
+    }
+
+    /**
+     * "first_name" / "firstName" / "First Name" -> "firstname"
+     */
+    private static String normalizeField(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Tách một dòng CSV (RFC 4180: field trong dấu ngoặc kép, "" là dấu ngoặc kép)
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+}
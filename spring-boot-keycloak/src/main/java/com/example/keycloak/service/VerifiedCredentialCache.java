@@ -0,0 +1,131 @@
+package com.example.keycloak.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+/**
+ * Cache ngắn hạn các lần verify password thành công (opt-in)
+ *
+ * Bank-Level Security:
+ * - Không lưu password: chỉ lưu HMAC-SHA256(password) với key ngẫu nhiên sinh mỗi process
+ *   (không rời khỏi bộ nhớ, không brute-force offline được nếu lộ heap dump cũ / cache phân tán)
+ * - Entry gắn với stored hash lúc verify: stored hash đổi (đổi password) thì entry vô hiệu
+ * - Caller xoá entry khi account bị disable / lock; TTL ngắn giới hạn thời gian còn lại
+ * - So sánh MAC constant-time
+ *
+ * Performance:
+ * - Login lặp lại với cùng credential đúng (service accounts, mobile app retry)
+ *   trong TTL tốn vài microseconds thay vì ~250 ms BCrypt
+ *
+ * Class không phụ thuộc Spring: dùng chung cho Spring Boot app và Keycloak provider.
+ */
+public class VerifiedCredentialCache {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final boolean enabled;
+    private final Cache<String, VerifiedCredential> cache;
+    private final SecretKeySpec macKey;
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param ttl     thời gian giữ một lần verify thành công (0 = tắt cache)
+     * @param maxSize số users tối đa
+     */
+    public VerifiedCredentialCache(Duration ttl, long maxSize) {
+        this.enabled = !ttl.isZero() && !ttl.isNegative();
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(enabled ? ttl : Duration.ofSeconds(1))
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.macKey = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(MAC_ALGORITHM);
+                instance.init(macKey);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Password đã được verify thành công với đúng stored hash này trong TTL chưa
+     */
+    public boolean isVerified(String username, String password, String storedHash) {
+        if (!enabled || username == null || password == null || storedHash == null) {
+            return false;
+        }
+        VerifiedCredential entry = cache.getIfPresent(username);
+        if (entry == null) {
+            return false;
+        }
+        if (!entry.storedHash.equals(storedHash)) {
+            // Password đã đổi (hoặc rehash): entry cũ không còn giá trị
+            cache.asMap().remove(username, entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.passwordMac, mac(password));
+    }
+
+    /**
+     * Ghi nhận một lần verify thành công (gọi sau khi BCrypt khớp)
+     */
+    public void recordSuccess(String username, String password, String storedHash) {
+        if (!enabled || username == null || password == null || storedHash == null) {
+            return;
+        }
+        cache.put(username, new VerifiedCredential(storedHash, mac(password)));
+    }
+
+    /**
+     * Xoá entry của user (account bị disable / lock, password đổi)
+     */
+    public void invalidate(String username) {
+        if (enabled && username != null) {
+            cache.invalidate(username);
+        }
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    private byte[] mac(String password) {
+        return mac.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class VerifiedCredential {
+        private final String storedHash;
+        private final byte[] passwordMac;
+
+        private VerifiedCredential(String storedHash, byte[] passwordMac) {
+            this.storedHash = storedHash;
+            this.passwordMac = passwordMac;
+        }
+    }
+}
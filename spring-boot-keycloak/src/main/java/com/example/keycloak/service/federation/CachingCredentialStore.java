@@ -0,0 +1,70 @@
+package com.example.keycloak.service.federation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Cache các password hash đã tra cứu từ CredentialStore khác
+ * 
+ * Performance:
+ * - Mỗi validate chỉ còn một lần tra cache + một lần BCrypt verify
+ * - User không tồn tại được cache với TTL ngắn hơn (negative caching)
+ * - Tra cứu đồng thời cùng user chỉ gọi store bên dưới một lần
+ * 
+ * Password đổi trong store có hiệu lực sau tối đa TTL (hoặc ngay khi invalidate)
+ */
+public class CachingCredentialStore implements CredentialStore {
+
+    private final CredentialStore delegate;
+    private final Cache<String, Optional<String>> cache;
+
+    public CachingCredentialStore(CredentialStore delegate, Duration ttl, Duration negativeTtl, long maxSize) {
+        this.delegate = delegate;
+        long ttlNanos = ttl.toNanos();
+        long negativeTtlNanos = negativeTtl.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Optional<String>>() {
+                    @Override
+                    public long expireAfterCreate(String key, Optional<String> value, long currentTime) {
+                        return value.isPresent() ? ttlNanos : negativeTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Optional<String> value, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Optional<String> value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public String findPasswordHash(String username) {
+        if (username == null) {
+            return null;
+        }
+        return cache.get(username, key -> Optional.ofNullable(delegate.findPasswordHash(key))).orElse(null);
+    }
+
+    @Override
+    public void invalidate(String username) {
+        cache.invalidate(username);
+        delegate.invalidate(username);
+    }
+
+    public Cache<String, Optional<String>> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.keycloak.service.federation;
+
+/**
+ * Nguồn password hash cho ExternalApiFederationStrategy
+ * 
+ * Bank-Level Security:
+ * - Chỉ trả về hash đã lưu (BCrypt), không bao giờ trả về hay so sánh plaintext
+ * - Hash được so khớp một lần bởi PasswordHashingService, không tạo hash mới khi validate
+ */
+public interface CredentialStore {
+
+    /**
+     * Password hash đã lưu của user
+     * 
+     * @return BCrypt hash, hoặc null nếu user không tồn tại
+     */
+    String findPasswordHash(String username);
+
+    /**
+     * Bỏ kết quả đã cache của user (password đổi, user bị xoá); mặc định không làm gì
+     */
+    default void invalidate(String username) {
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.keycloak.service.federation;
+
+import java.util.Map;
+
+/**
+ * Credential store demo (admin / user) với BCrypt hashes tính sẵn (work factor 12)
+ * 
+ * Thay cho mock cũ tạo hash mới mỗi lần validate (tốn thêm một lần BCrypt mỗi login);
+ * production dùng JdbcCredentialStore (security.federation.api.credential-store.type=jdbc)
+ */
+public class DemoCredentialStore implements CredentialStore {
+
+    private static final Map<String, String> PASSWORD_HASHES = Map.of(
+            // admin123
+            "admin", "$2a$12$kIz9Po4yM0PMOHRO/5faKeNjFf8p6WtcgmSByhpNyix6upqhlfBfW",
+            // user123
+            "user", "$2a$12$1D7NHNyJ48KqxrrZxZdNRuMlzHXAEx97uM56VpfuWLD4YWvzz6h36");
+
+    @Override
+    public String findPasswordHash(String username) {
+        return username != null ? PASSWORD_HASHES.get(username) : null;
+    }
+}
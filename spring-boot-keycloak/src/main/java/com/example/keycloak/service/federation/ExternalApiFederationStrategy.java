@@ -1,39 +1,67 @@
 package com.example.keycloak.service.federation;
 
-import org.mindrot.jbcrypt.BCrypt;
+import com.example.keycloak.exception.ServiceOverloadedException;
+import com.example.keycloak.filter.ClientIpResolutionFilter;
+import com.example.keycloak.service.PasswordHashingService;
+import com.example.keycloak.service.VerifiedCredentialCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.stereotype.Component;
 
 /**
  * External API Federation Strategy
  * Strategy Pattern Implementation cho External REST API Authentication
+ * 
+ * Mỗi validate: một lần tra CredentialStore (cache) + một lần BCrypt verify
+ * trên PasswordHashingService (không chiếm request thread);
+ * login lặp lại với credential đúng được trả lời từ VerifiedCredentialCache (nếu bật)
  */
 @Component
 public class ExternalApiFederationStrategy extends BaseFederationStrategy {
 
     private static final Logger log = LoggerFactory.getLogger(ExternalApiFederationStrategy.class);
 
+    private final CredentialStore credentialStore;
+    private final PasswordHashingService passwordHashingService;
+    private final VerifiedCredentialCache verifiedCredentialCache;
+
+    public ExternalApiFederationStrategy(CredentialStore credentialStore,
+                                         PasswordHashingService passwordHashingService,
+                                         VerifiedCredentialCache verifiedCredentialCache) {
+        this.credentialStore = credentialStore;
+        this.passwordHashingService = passwordHashingService;
+        this.verifiedCredentialCache = verifiedCredentialCache;
+    }
+
     @Override
     public boolean validate(String username, String password) {
         log.info("Validating user {} with External API", username);
 
         if (isAccountLocked(username)) {
+            verifiedCredentialCache.invalidate(username);
             auditLog.warn("API_AUTH_BLOCKED | user={} | reason=ACCOUNT_LOCKED", username);
             return false;
         }
 
         try {
-            // Mock: In production, call actual API with HMAC signature
-            String storedHash = getStoredPasswordHash(username);
+            String storedHash = credentialStore.findPasswordHash(username);
             if (storedHash == null) {
                 auditLog.warn("API_AUTH_FAILED | user={} | reason=USER_NOT_FOUND", username);
                 return false;
             }
 
-            boolean isValid = BCrypt.checkpw(password, storedHash);
+            if (verifiedCredentialCache.isVerified(username, password, storedHash)) {
+                resetFailedAttempts(username);
+                auditLog.info("API_AUTH_SUCCESS | user={} | cached=true", username);
+                return true;
+            }
+
+            boolean isValid = passwordHashingService.verify(password, storedHash,
+                    MDC.get(ClientIpResolutionFilter.MDC_CLIENT_IP));
 
             if (isValid) {
+                verifiedCredentialCache.recordSuccess(username, password, storedHash);
                 resetFailedAttempts(username);
                 auditLog.info("API_AUTH_SUCCESS | user={}", username);
             } else {
@@ -43,23 +71,16 @@ public class ExternalApiFederationStrategy extends BaseFederationStrategy {
 
             return isValid;
 
+        } catch (ServiceOverloadedException e) {
+            // Quá tải không phải sai password: không tính vào lockout, trả 503 cho client
+            auditLog.warn("API_AUTH_REJECTED | user={} | reason=OVERLOADED", username);
+            throw e;
         } catch (Exception e) {
             log.error("API auth error for user {}: {}", username, e.getMessage());
             return false;
         }
     }
 
-    private String getStoredPasswordHash(String username) {
-        // Mock data - replace with actual API call
-        if ("admin".equals(username)) {
-            return BCrypt.hashpw("admin123", BCrypt.gensalt(12));
-        }
-        if ("user".equals(username)) {
-            return BCrypt.hashpw("user123", BCrypt.gensalt(12));
-        }
-        return null;
-    }
-
     @Override
     public String getType() {
         return "API";
@@ -0,0 +1,27 @@
+package com.example.keycloak.service.federation;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * Credential store đọc password hash từ bảng users (cùng schema với custom user provider
+ * và UserImportJob), chỉ user đang enabled
+ */
+public class JdbcCredentialStore implements CredentialStore {
+
+    private static final String SELECT_PASSWORD =
+            "SELECT password FROM users WHERE username = ? AND enabled = TRUE";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcCredentialStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public String findPasswordHash(String username) {
+        List<String> hashes = jdbcTemplate.queryForList(SELECT_PASSWORD, String.class, username);
+        return hashes.isEmpty() ? null : hashes.get(0);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.keycloak.strategy;
 
 import com.example.keycloak.dto.LoginRequest;
 import com.example.keycloak.dto.LoginResponse;
+import com.example.keycloak.exception.ServiceOverloadedException;
 import com.example.keycloak.service.RemoteFederationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -69,7 +70,7 @@ public class FederationAuthenticationStrategy implements AuthenticationStrategy
                     .message("Login successful with Remote User Federation")
                     .build();
                     
-        } catch (AuthenticationException e) {
+        } catch (AuthenticationException | ServiceOverloadedException e) {
             throw e;
         } catch (Exception e) {
             log.error("Federation authentication failed for user {}: {}", request.getUsername(), e.getMessage());
@@ -0,0 +1,25 @@
+-- Bảng phụ của custom user database (CustomUserStorageProvider)
+-- users(id, username, email, password, first_name, last_name, enabled, updated_at) đã có sẵn
+
+-- Attributes của user: searchForUserByUserAttributeStream tra theo (attribute_name, attribute_value)
+CREATE TABLE IF NOT EXISTS user_attributes (
+    user_id         VARCHAR(36) NOT NULL,
+    attribute_name  VARCHAR(255) NOT NULL,
+    attribute_value VARCHAR(255) NOT NULL,
+    PRIMARY KEY (user_id, attribute_name, attribute_value),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
+
+-- Covering index: lookup theo (attribute_name, attribute_value) và phân trang theo user_id chỉ đọc index
+CREATE INDEX IF NOT EXISTS idx_user_attributes_name_value ON user_attributes (attribute_name, attribute_value, user_id);
+
+-- Membership: group_id là id của Keycloak group (GroupModel.getId())
+CREATE TABLE IF NOT EXISTS user_groups (
+    group_id VARCHAR(36) NOT NULL,
+    user_id  VARCHAR(36) NOT NULL,
+    PRIMARY KEY (group_id, user_id),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
+
+-- Groups của một user (primary key phục vụ members của một group)
+CREATE INDEX IF NOT EXISTS idx_user_groups_user ON user_groups (user_id);
@@ -0,0 +1,122 @@
+package com.example.keycloak.filter;
+
+import org.junit.jupiter.api.Test;
+
+import static com.example.keycloak.filter.CidrMatcher.BLACKLIST;
+import static com.example.keycloak.filter.CidrMatcher.WHITELIST;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CidrMatcherTest {
+
+    private static int match(CidrMatcher matcher, String address) {
+        return matcher.match(IpAddress.parse(address));
+    }
+
+    @Test
+    void matchesIpv4PrefixBoundaries() {
+        CidrMatcher matcher = CidrMatcher.builder().add("10.1.0.0/16", BLACKLIST).build();
+
+        assertThat(match(matcher, "10.1.0.0")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "10.1.255.255")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "10.0.255.255")).isZero();
+        assertThat(match(matcher, "10.2.0.0")).isZero();
+    }
+
+    @Test
+    void hostBitsOfPrefixAreIgnored() {
+        CidrMatcher matcher = CidrMatcher.builder().add("192.168.1.77/24", BLACKLIST).build();
+
+        assertThat(match(matcher, "192.168.1.1")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "192.168.2.1")).isZero();
+    }
+
+    @Test
+    void zeroLengthPrefixMatchesEveryAddressOfItsFamily() {
+        CidrMatcher matcher = CidrMatcher.builder()
+                .add("0.0.0.0/0", BLACKLIST)
+                .add("::/0", WHITELIST)
+                .build();
+
+        assertThat(match(matcher, "8.8.8.8")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "2001:db8::1")).isEqualTo(WHITELIST);
+    }
+
+    @Test
+    void singleAddressIsAFullLengthPrefix() {
+        CidrMatcher matcher = CidrMatcher.builder()
+                .add("203.0.113.9", BLACKLIST)
+                .add("2001:db8::9", BLACKLIST)
+                .build();
+
+        assertThat(match(matcher, "203.0.113.9")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "203.0.113.8")).isZero();
+        assertThat(match(matcher, "2001:db8::9")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "2001:db8::8")).isZero();
+        assertThat(matcher.ipv4PrefixCount()).isEqualTo(1);
+        assertThat(matcher.ipv6PrefixCount()).isEqualTo(1);
+    }
+
+    @Test
+    void orsFlagsOfAllEnclosingPrefixes() {
+        CidrMatcher matcher = CidrMatcher.builder()
+                .add("10.0.0.0/8", BLACKLIST)
+                .add("10.1.2.0/24", WHITELIST)
+                .build();
+
+        assertThat(match(matcher, "10.1.2.3")).isEqualTo(BLACKLIST | WHITELIST);
+        assertThat(match(matcher, "10.9.9.9")).isEqualTo(BLACKLIST);
+    }
+
+    @Test
+    void matchesIpv6PrefixAcrossTheHighLowWordBoundary() {
+        CidrMatcher matcher = CidrMatcher.builder().add("2001:db8:0:0:8000::/65", BLACKLIST).build();
+
+        assertThat(match(matcher, "2001:db8::8000:0:0:1")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "2001:db8::7fff:0:0:1")).isZero();
+    }
+
+    @Test
+    void ipv4MappedEntriesAndAddressesUseTheIpv4Trie() {
+        CidrMatcher matcher = CidrMatcher.builder().add("::ffff:10.0.0.0/104", BLACKLIST).build();
+
+        assertThat(matcher.ipv4PrefixCount()).isEqualTo(1);
+        assertThat(matcher.ipv6PrefixCount()).isZero();
+        assertThat(match(matcher, "10.20.30.40")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "::ffff:10.20.30.40")).isEqualTo(BLACKLIST);
+        assertThat(match(matcher, "11.0.0.1")).isZero();
+
+        CidrMatcher plain = CidrMatcher.builder().add("10.0.0.0/8", BLACKLIST).build();
+        assertThat(match(plain, "::ffff:10.1.1.1")).isEqualTo(BLACKLIST);
+    }
+
+    @Test
+    void duplicatePrefixesAreCountedOnce() {
+        CidrMatcher matcher = CidrMatcher.builder()
+                .add("10.0.0.0/8", BLACKLIST)
+                .add("10.0.0.0/8", WHITELIST)
+                .build();
+
+        assertThat(matcher.ipv4PrefixCount()).isEqualTo(1);
+        assertThat(match(matcher, "10.0.0.1")).isEqualTo(BLACKLIST | WHITELIST);
+    }
+
+    @Test
+    void emptyMatcherAndNullAddressMatchNothing() {
+        assertThat(match(CidrMatcher.empty(), "10.0.0.1")).isZero();
+        assertThat(CidrMatcher.builder().add("0.0.0.0/0", BLACKLIST).build().match(null)).isZero();
+    }
+
+    @Test
+    void rejectsInvalidEntries() {
+        CidrMatcher.Builder builder = CidrMatcher.builder();
+
+        assertThatThrownBy(() -> builder.add("10.0.0.0/33", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add("10.0.0.0/-1", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add("2001:db8::/129", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add("::ffff:10.0.0.0/95", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add("10.0.0.0/abc", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add("not-an-ip", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add(" ", BLACKLIST)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.keycloak.filter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientIpResolverTest {
+
+    private ClientIpResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        resolver = new ClientIpResolver();
+        ReflectionTestUtils.setField(resolver, "trustedProxiesConfig", "127.0.0.0/8,::1,10.0.0.0/8");
+        resolver.init();
+    }
+
+    private static IpAddress ip(String value) {
+        return IpAddress.parse(value);
+    }
+
+    @Test
+    void ignoresForwardingHeadersFromUntrustedPeer() {
+        assertThat(resolver.resolve("203.0.113.5", "198.51.100.1", "198.51.100.2"))
+                .isEqualTo(ip("203.0.113.5"));
+    }
+
+    @Test
+    void returnsRightmostUntrustedHop() {
+        // Client chèn 1.1.1.1 vào đầu header; proxy nối IP thật 198.51.100.7
+        assertThat(resolver.resolve("10.0.0.2", "1.1.1.1, 198.51.100.7, 10.0.0.1", null))
+                .isEqualTo(ip("198.51.100.7"));
+    }
+
+    @Test
+    void usesFarthestHopWhenWholeChainIsTrusted() {
+        assertThat(resolver.resolve("127.0.0.1", "10.0.0.3,10.0.0.2", null)).isEqualTo(ip("10.0.0.3"));
+    }
+
+    @Test
+    void stopsAtNearestTrustedHopOnMalformedEntry() {
+        assertThat(resolver.resolve("10.0.0.2", "198.51.100.7, garbage, 10.0.0.1", null))
+                .isEqualTo(ip("10.0.0.1"));
+        assertThat(resolver.resolve("10.0.0.2", "198.51.100.7,,", null)).isEqualTo(ip("10.0.0.2"));
+    }
+
+    @Test
+    void acceptsBracketedAndMappedHops() {
+        assertThat(resolver.resolve("::1", "[2001:db8::7]", null)).isEqualTo(ip("2001:db8::7"));
+        // ::ffff:10.0.0.1 là IPv4 10.0.0.1: trusted, bỏ qua
+        assertThat(resolver.resolve("::ffff:127.0.0.1", "198.51.100.7, ::ffff:10.0.0.1", null))
+                .isEqualTo(ip("198.51.100.7"));
+    }
+
+    @Test
+    void fallsBackToXRealIpThenPeer() {
+        assertThat(resolver.resolve("127.0.0.1", null, "198.51.100.9")).isEqualTo(ip("198.51.100.9"));
+        assertThat(resolver.resolve("127.0.0.1", "", "not-an-ip")).isEqualTo(ip("127.0.0.1"));
+    }
+
+    @Test
+    void returnsNullForInvalidPeer() {
+        assertThat(resolver.resolve("unknown", "198.51.100.7", null)).isNull();
+    }
+
+    @Test
+    void cachesResolvedAddressInRequestAttribute() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("X-Forwarded-For", "198.51.100.7");
+
+        IpAddress first = resolver.resolve(request);
+        request.setRemoteAddr("203.0.113.1");
+
+        assertThat(first).isEqualTo(ip("198.51.100.7"));
+        assertThat(request.getAttribute(ClientIpResolver.CLIENT_ADDRESS_ATTRIBUTE)).isSameAs(first);
+        assertThat(resolver.resolve(request)).isSameAs(first);
+    }
+}
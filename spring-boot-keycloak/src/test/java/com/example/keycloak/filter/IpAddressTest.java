@@ -0,0 +1,69 @@
+package com.example.keycloak.filter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IpAddressTest {
+
+    @Test
+    void parsesIpv4() {
+        IpAddress address = IpAddress.parse("192.168.1.10");
+
+        assertThat(address.isIpv4()).isTrue();
+        assertThat(address.toIpv4Int()).isEqualTo(0xC0A8010A);
+        assertThat(address.toString()).isEqualTo("192.168.1.10");
+    }
+
+    @Test
+    void normalizesIpv4MappedIpv6ToIpv4() {
+        IpAddress mapped = IpAddress.parse("::ffff:10.1.2.3");
+        IpAddress hexMapped = IpAddress.parse("::ffff:a01:203");
+
+        assertThat(mapped.isIpv4()).isTrue();
+        assertThat(mapped).isEqualTo(IpAddress.parse("10.1.2.3"));
+        assertThat(hexMapped).isEqualTo(mapped);
+    }
+
+    @Test
+    void doesNotTreatIpv4CompatibleOrNat64AsMapped() {
+        assertThat(IpAddress.parse("::10.1.2.3").isIpv4()).isFalse();
+        assertThat(IpAddress.parse("64:ff9b::10.1.2.3").isIpv4()).isFalse();
+        assertThat(IpAddress.parse("::fffe:10.1.2.3").isIpv4()).isFalse();
+    }
+
+    @Test
+    void expandsCompressedIpv6() {
+        IpAddress address = IpAddress.parse("2001:db8::1");
+
+        assertThat(address.isIpv4()).isFalse();
+        assertThat(address.high()).isEqualTo(0x20010DB800000000L);
+        assertThat(address.low()).isEqualTo(1L);
+        assertThat(IpAddress.parse("2001:0db8:0:0:0:0:0:0001")).isEqualTo(address);
+        assertThat(IpAddress.parse("::")).isEqualTo(IpAddress.ofIpv6(0L, 0L));
+        assertThat(IpAddress.parse("1:2:3:4:5:6:7::").low()).isEqualTo(0x0005000600070000L);
+    }
+
+    @Test
+    void stripsBracketsZoneAndWhitespace() {
+        assertThat(IpAddress.parse(" [fe80::1%eth0] ")).isEqualTo(IpAddress.parse("fe80::1"));
+        assertThat(IpAddress.parse("  10.0.0.1 ")).isEqualTo(IpAddress.parse("10.0.0.1"));
+    }
+
+    @Test
+    void parsesSubRange() {
+        String header = "203.0.113.7, 10.0.0.1";
+
+        assertThat(IpAddress.parse(header, 0, header.indexOf(','))).isEqualTo(IpAddress.parse("203.0.113.7"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "  ", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1..2.3", "1.2.3.", "a.b.c.d",
+            ":::", "1:::2", "1::2::3", ":1::2", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::1", "1::2:",
+            "1::g", "[::1", "::ffff:1.2.3.256", "::1.2.3"})
+    void rejectsInvalidAddresses(String value) {
+        assertThat(IpAddress.parse(value)).isNull();
+    }
+}
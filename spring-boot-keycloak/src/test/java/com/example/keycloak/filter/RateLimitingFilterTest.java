@@ -0,0 +1,87 @@
+package com.example.keycloak.filter;
+
+import com.example.keycloak.config.RateLimitProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitingFilterTest {
+
+    private static final int LIMIT = 5;
+
+    private RateLimitingFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        RateLimitProperties.Limit limit = new RateLimitProperties.Limit();
+        limit.setCapacity(LIMIT);
+        limit.setPeriod(Duration.ofMinutes(1));
+        RateLimitProperties.Policy policy = new RateLimitProperties.Policy();
+        policy.setName("mfa-verify");
+        policy.setPaths(List.of("/api/auth/mfa/verify"));
+        policy.setMethods(List.of("POST"));
+        policy.setEngine(RateLimitProperties.Engine.SLIDING_WINDOW);
+        policy.setSlots(16);
+        policy.setLimits(List.of(limit));
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setPolicies(List.of(policy));
+
+        ClientIpResolver resolver = new ClientIpResolver();
+        ReflectionTestUtils.setField(resolver, "trustedProxiesConfig", "");
+        resolver.init();
+
+        filter = new RateLimitingFilter(resolver, new SimpleMeterRegistry(), properties, null);
+        filter.init();
+    }
+
+    private int post(String contextPath, String requestUri) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", requestUri);
+        request.setContextPath(contextPath);
+        request.setRemoteAddr("203.0.113.7");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response.getStatus();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'', /api/auth/mfa/verify",
+            "'', /api/auth/mfa/verify/",
+            "'', /api/auth/mfa/verify;jsessionid=abc",
+            "'', /api/auth/mfa/verify/;jsessionid=abc",
+            "'', /api/auth/mfa/%76erify",
+            "'', /api/auth//mfa/verify",
+            "/app, /app/api/auth/mfa/verify/",
+    })
+    void variantsOfExactPathShareOnePolicy(String contextPath, String variant) throws Exception {
+        for (int i = 0; i < LIMIT; i++) {
+            assertThat(post("", "/api/auth/mfa/verify")).isEqualTo(200);
+        }
+
+        assertThat(post(contextPath, variant)).isEqualTo(429);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'', /api/auth/mfa/verify/extra",
+            "'', /api/auth/mfa/verify-code",
+            "/app, /app/other/api/auth/mfa/verify",
+    })
+    void otherPathsDoNotMatchExactPath(String contextPath, String path) throws Exception {
+        for (int i = 0; i < LIMIT; i++) {
+            post("", "/api/auth/mfa/verify");
+        }
+
+        assertThat(post(contextPath, path)).isEqualTo(200);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.keycloak.filter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SlidingWindowRateLimiterTest {
+
+    private static final long PERIOD = Duration.ofSeconds(1).toNanos();
+    private static final long WINDOW_START = 10 * PERIOD;
+
+    private static SlidingWindowRateLimiter limiter(int limit) {
+        return new SlidingWindowRateLimiter("test", limit, Duration.ofNanos(PERIOD), 16);
+    }
+
+    private static SlidingWindowRateLimiter limiter(int limit, Duration period) {
+        return new SlidingWindowRateLimiter("test", limit, period, 16);
+    }
+
+    @Test
+    void allowsUpToLimitWithinOneWindow() {
+        SlidingWindowRateLimiter limiter = limiter(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire(0, WINDOW_START + i)).isZero();
+        }
+        // Hết window hiện tại rồi chờ count cũ trôi đi đủ
+        assertThat(limiter.tryAcquire(0, WINDOW_START)).isEqualTo(PERIOD + 1);
+        assertThat(limiter.tryAcquire(1, WINDOW_START)).as("other slot").isZero();
+    }
+
+    /**
+     * System.nanoTime() có thể âm: window trước vẫn có trọng số ≤ 1
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {10, 0, -1, -10})
+    void weightsPreviousWindowByRemainingFraction(long windowIndex) {
+        long windowStart = windowIndex * PERIOD;
+        SlidingWindowRateLimiter limiter = limiter(3);
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(0, windowStart);
+        }
+
+        long now = windowStart + PERIOD + PERIOD / 2;
+        // estimate = current + 3 * 0.5 = current + 1
+        assertThat(limiter.tryAcquire(0, now)).isZero();
+        assertThat(limiter.tryAcquire(0, now)).isZero();
+        long wait = limiter.tryAcquire(0, now);
+
+        assertThat(wait).isEqualTo(PERIOD / 2 - PERIOD / 3);
+        assertThat(limiter.tryAcquire(0, now + wait - 1)).isPositive();
+        assertThat(limiter.tryAcquire(0, now + wait)).isZero();
+    }
+
+    @Test
+    void forgetsCountsOlderThanPreviousWindow() {
+        SlidingWindowRateLimiter limiter = limiter(2);
+        limiter.tryAcquire(0, WINDOW_START);
+        limiter.tryAcquire(0, WINDOW_START);
+
+        assertThat(limiter.tryAcquire(0, WINDOW_START + PERIOD)).isPositive();
+        assertThat(limiter.tryAcquire(0, WINDOW_START + 2 * PERIOD)).isZero();
+        assertThat(limiter.tryAcquire(0, WINDOW_START + 2 * PERIOD)).isZero();
+    }
+
+    @Test
+    void fullPreviousWindowOfOneDayAtNegativeTimeDoesNotOverflow() {
+        long day = Duration.ofDays(1).toNanos();
+        int limit = SlidingWindowRateLimiter.MAX_LIMIT;
+        SlidingWindowRateLimiter limiter = limiter(limit, Duration.ofDays(1));
+        long windowStart = -10 * day;
+        for (int i = 0; i < limit; i++) {
+            limiter.tryAcquire(0, windowStart + 1);
+        }
+
+        // estimate = 65535 * (day - 1) / day = 65534: đúng một request nữa
+        long now = windowStart + day + 1;
+        assertThat(limiter.tryAcquire(0, now)).isZero();
+        assertThat(limiter.tryAcquire(0, now)).isPositive();
+        assertThat(limiter.tryAcquire(0, now + day / 2)).isZero();
+    }
+
+    @Test
+    void packsFullSixteenBitCountsWithoutOverflow() {
+        int limit = SlidingWindowRateLimiter.MAX_LIMIT;
+        SlidingWindowRateLimiter limiter = limiter(limit);
+
+        for (int i = 0; i < limit; i++) {
+            assertThat(limiter.tryAcquire(0, WINDOW_START)).isZero();
+        }
+        assertThat(limiter.tryAcquire(0, WINDOW_START)).isPositive();
+
+        // current (65535) chuyển nguyên vẹn sang phần previous của slot
+        assertThat(limiter.tryAcquire(0, WINDOW_START + PERIOD)).isPositive();
+        long halfway = WINDOW_START + PERIOD + PERIOD / 2;
+        for (int i = 0; i < limit - limit / 2; i++) {
+            assertThat(limiter.tryAcquire(0, halfway)).isZero();
+        }
+        assertThat(limiter.tryAcquire(0, halfway)).isPositive();
+    }
+
+    @Test
+    void publicApiLimitsPerKey() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter("test", 2, Duration.ofHours(1), 1 << 16);
+
+        assertThat(limiter.tryAcquire("10.0.0.1")).isZero();
+        assertThat(limiter.tryAcquire("10.0.0.1")).isZero();
+        assertThat(limiter.tryAcquire("10.0.0.1")).isPositive();
+        assertThat(limiter.slot("10.0.0.1")).isEqualTo(limiter.slot("10.0.0.1")).isBetween(0, (1 << 16) - 1);
+    }
+
+    @Test
+    void roundsSlotCountUpToPowerOfTwo() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter("test", 10, Duration.ofMinutes(1), 1000);
+
+        assertThat(limiter.getSlotCount()).isEqualTo(1024);
+        assertThat(limiter.estimatedBytes()).isEqualTo(1024L * Long.BYTES);
+        assertThat(new SlidingWindowRateLimiter("test", 10, Duration.ofMinutes(1), 1).getSlotCount()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsInvalidConfiguration() {
+        Duration minute = Duration.ofMinutes(1);
+
+        assertThatThrownBy(() -> new SlidingWindowRateLimiter("test", 0, minute, 16))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SlidingWindowRateLimiter("test", SlidingWindowRateLimiter.MAX_LIMIT + 1, minute, 16))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SlidingWindowRateLimiter("test", 10, Duration.ZERO, 16))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SlidingWindowRateLimiter("test", 10, Duration.ofDays(2), 16))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SlidingWindowRateLimiter("test", 10, minute, SlidingWindowRateLimiter.MAX_SLOTS + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
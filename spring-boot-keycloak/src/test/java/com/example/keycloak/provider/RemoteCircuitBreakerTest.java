@@ -0,0 +1,229 @@
+package com.example.keycloak.provider;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.example.keycloak.provider.RemoteCircuitBreaker.State.CLOSED;
+import static com.example.keycloak.provider.RemoteCircuitBreaker.State.HALF_OPEN;
+import static com.example.keycloak.provider.RemoteCircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RemoteCircuitBreakerTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    /**
+     * Window 10 (tối thiểu 5 calls), mở khi ≥ 50% lỗi hoặc ≥ 50% chậm (> 100 ms)
+     */
+    private static RemoteCircuitBreaker breaker(Duration openDuration) {
+        return breaker(50, 50, openDuration);
+    }
+
+    private static RemoteCircuitBreaker breaker(int failureRatePercent, int slowCallRatePercent,
+                                                Duration openDuration) {
+        return new RemoteCircuitBreaker("test", 10, failureRatePercent, Duration.ofMillis(100),
+                slowCallRatePercent, openDuration);
+    }
+
+    private static void record(RemoteCircuitBreaker breaker, int calls, boolean failed, long latencyNanos) {
+        for (int i = 0; i < calls; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onResult(failed, latencyNanos);
+        }
+    }
+
+    /**
+     * Breaker với open duration 0 đã mở: call kế tiếp là call thử
+     */
+    private static RemoteCircuitBreaker halfOpen() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ZERO);
+        record(breaker, 5, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(HALF_OPEN);
+        return breaker;
+    }
+
+    @Test
+    void waitsForMinimumCallsBeforeOpening() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        record(breaker, 4, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+
+        record(breaker, 1, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+        assertThat(breaker.getOpenCount()).isEqualTo(1);
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        record(breaker, 5, false, FAST);
+        record(breaker, 4, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getFailureRatePercent()).isCloseTo(44.4, within(0.1));
+
+        record(breaker, 1, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void opensWhenSlowCallRateReachesThreshold() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        record(breaker, 4, false, SLOW);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getSlowCallRatePercent()).isEqualTo(100.0);
+
+        record(breaker, 1, false, SLOW);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+        assertThat(breaker.getFailureRatePercent()).isZero();
+    }
+
+    @Test
+    void zeroRatesDisableBothCriteria() {
+        RemoteCircuitBreaker breaker = breaker(0, 0, Duration.ofHours(1));
+
+        record(breaker, 10, false, FAST);
+        assertThat(breaker.getState()).as("all calls succeeded").isEqualTo(CLOSED);
+        record(breaker, 10, true, SLOW);
+
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getOpenCount()).isZero();
+        assertThat(breaker.getFailureRatePercent()).as("still reported").isEqualTo(100.0);
+        assertThat(breaker.getSlowCallRatePercent()).isEqualTo(100.0);
+    }
+
+    @Test
+    void zeroSlowCallRateIgnoresLatencyOfTrialCalls() {
+        RemoteCircuitBreaker breaker = breaker(50, 0, Duration.ZERO);
+        record(breaker, 5, true, FAST);
+
+        record(breaker, 3, false, SLOW);
+
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getOpenCount()).isEqualTo(1);
+    }
+
+    @Test
+    void hundredPercentFailureRateOpensOnlyWhenEveryCallFails() {
+        RemoteCircuitBreaker breaker = breaker(100, 0, Duration.ofHours(1));
+
+        record(breaker, 1, false, FAST);
+        record(breaker, 9, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+
+        record(breaker, 1, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void hundredPercentSlowCallRateOpensOnlyWhenEveryCallIsSlow() {
+        RemoteCircuitBreaker breaker = breaker(0, 100, Duration.ofHours(1));
+
+        record(breaker, 1, false, FAST);
+        record(breaker, 9, false, SLOW);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+
+        record(breaker, 1, false, SLOW);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void forgetsOutcomesThatLeaveTheWindow() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        record(breaker, 6, false, FAST);
+        record(breaker, 4, true, FAST);
+        assertThat(breaker.getFailureRatePercent()).isEqualTo(40.0);
+
+        // 8 successes đẩy 6 successes đầu và 2 failures ra khỏi window
+        record(breaker, 8, false, FAST);
+        assertThat(breaker.getFailureRatePercent()).isEqualTo(20.0);
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void rejectsCallsWhileOpen() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+        record(breaker, 5, true, FAST);
+
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getRejectedCount()).isEqualTo(2);
+
+        // Kết quả muộn của call bắt đầu trước khi mở không đổi trạng thái
+        breaker.onResult(false, FAST);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void closesAfterSuccessfulTrialCalls() {
+        RemoteCircuitBreaker breaker = halfOpen();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+        }
+        assertThat(breaker.tryAcquire()).as("only three trial calls").isFalse();
+        for (int i = 0; i < 3; i++) {
+            breaker.onResult(false, FAST);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getFailureRatePercent()).isZero();
+        record(breaker, 4, true, FAST);
+        assertThat(breaker.getState()).as("window was reset on close").isEqualTo(CLOSED);
+    }
+
+    @Test
+    void reopensOnFailedTrialCall() {
+        RemoteCircuitBreaker breaker = halfOpen();
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onResult(false, FAST);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onResult(true, FAST);
+
+        assertThat(breaker.getOpenCount()).isEqualTo(2);
+    }
+
+    @Test
+    void reopensOnSlowTrialCall() {
+        RemoteCircuitBreaker breaker = halfOpen();
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onResult(false, SLOW);
+
+        assertThat(breaker.getOpenCount()).isEqualTo(2);
+    }
+
+    @Test
+    void cancelledTrialCallFreesItsSlot() {
+        RemoteCircuitBreaker breaker = halfOpen();
+        for (int i = 0; i < 3; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+        }
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onCancelled();
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(HALF_OPEN);
+    }
+
+    @Test
+    void cancelledCallDoesNotCountWhileClosed() {
+        RemoteCircuitBreaker breaker = breaker(Duration.ofHours(1));
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onCancelled();
+        }
+
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.getFailureRatePercent()).isZero();
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.keycloak.provider;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RemoteUserBatcherTest {
+
+    private static final Map<String, String> USERS = Map.of(
+            "alice", "{\"id\":\"1\",\"username\":\"alice\",\"email\":\"alice@example.com\",\"enabled\":true}",
+            "bob", "{\"id\":\"2\",\"username\":\"bob\",\"email\":\"bob@example.com\",\"enabled\":true}");
+
+    private HttpServer server;
+    private final Queue<String> batchRequests = new ConcurrentLinkedQueue<>();
+    private final Queue<String> singleRequests = new ConcurrentLinkedQueue<>();
+    private volatile int batchStatus = 200;
+    private final CountDownLatch releaseSlow = new CountDownLatch(1);
+
+    private RemoteUserClient client;
+    private RemoteUserBatcher batcher;
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/users/batch", this::handleBatch);
+        server.createContext("/users", this::handleSingle);
+        server.start();
+        String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/users";
+        client = new RemoteUserClient("test", apiUrl, "secret", false, Duration.ofSeconds(2), Duration.ofSeconds(2),
+                2, 16, new RemoteCircuitBreaker("test", 20, 50, Duration.ofSeconds(2), 100, Duration.ofSeconds(30)),
+                new RetryBudget(0), false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseSlow.countDown();
+        if (batcher != null) {
+            batcher.close();
+        }
+        callers.shutdownNow();
+        client.close();
+        server.stop(0);
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        batchRequests.add(query);
+        if (query.contains("=slow")) {
+            try {
+                releaseSlow.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (batchStatus != 200) {
+            respond(exchange, batchStatus, "");
+            return;
+        }
+        List<String> found = new ArrayList<>();
+        for (String pair : query.split("&")) {
+            String user = USERS.get(URLDecoder.decode(pair.substring(pair.indexOf('=') + 1), StandardCharsets.UTF_8));
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        respond(exchange, 200, "[" + String.join(",", found) + "]");
+    }
+
+    private void handleSingle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        singleRequests.add(query);
+        String user = USERS.get(URLDecoder.decode(query.substring(query.indexOf('=') + 1), StandardCharsets.UTF_8));
+        respond(exchange, user != null ? 200 : 404, user != null ? user : "");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private List<Future<RemoteUserClient.Lookup>> lookupConcurrently(String... usernames) {
+        List<Future<RemoteUserClient.Lookup>> futures = new ArrayList<>();
+        for (String username : usernames) {
+            futures.add(callers.submit(() -> batcher.lookup("username", username)));
+        }
+        return futures;
+    }
+
+    private static RemoteUserClient.Lookup result(Future<RemoteUserClient.Lookup> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void sendsConcurrentLookupsAsOneBulkRequest() throws Exception {
+        batcher = new RemoteUserBatcher(client, "test", Duration.ofMillis(200), 100);
+
+        List<Future<RemoteUserClient.Lookup>> futures = lookupConcurrently("alice", "bob", "carol", "alice");
+
+        RemoteUserClient.Lookup alice = result(futures.get(0));
+        assertThat(alice.getStatus()).isEqualTo(RemoteUserClient.Lookup.Status.FOUND);
+        assertThat(alice.getUser().getId()).isEqualTo("1");
+        assertThat(alice.getEtag()).isNull();
+        assertThat(result(futures.get(1)).getUser().getUsername()).isEqualTo("bob");
+        assertThat(result(futures.get(2)).getStatus()).isEqualTo(RemoteUserClient.Lookup.Status.NOT_FOUND);
+        assertThat(result(futures.get(3))).isSameAs(alice);
+
+        assertThat(batchRequests).hasSize(1);
+        assertThat(batchRequests.peek().split("&"))
+                .containsExactlyInAnyOrder("username=alice", "username=bob", "username=carol");
+        assertThat(singleRequests).isEmpty();
+        assertThat(batcher.getBatchCount()).isEqualTo(1);
+        assertThat(batcher.getBatchedLookupCount()).isEqualTo(3);
+    }
+
+    @Test
+    void sendsFullBatchWithoutWaitingForWindow() throws Exception {
+        batcher = new RemoteUserBatcher(client, "test", Duration.ofSeconds(30), 2);
+
+        List<Future<RemoteUserClient.Lookup>> futures = lookupConcurrently("alice", "bob");
+
+        assertThat(result(futures.get(0)).getUser().getUsername()).isEqualTo("alice");
+        assertThat(result(futures.get(1)).getUser().getUsername()).isEqualTo("bob");
+        assertThat(batchRequests).hasSize(1);
+    }
+
+    @Test
+    void slowBulkRequestsDoNotDelayOtherFields() throws Exception {
+        batcher = new RemoteUserBatcher(client, "test", Duration.ofMillis(50), 100);
+
+        // Hai bulk requests treo tới hết request timeout
+        callers.submit(() -> batcher.lookup("email", "slow"));
+        callers.submit(() -> batcher.lookup("firstName", "slow"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batchRequests.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(batchRequests).hasSize(2);
+
+        Future<RemoteUserClient.Lookup> alice = lookupConcurrently("alice").get(0);
+
+        assertThat(alice.get(1, TimeUnit.SECONDS).getUser().getUsername()).isEqualTo("alice");
+    }
+
+    @Test
+    void failsEveryCallerOfFailedBulkRequest() throws Exception {
+        batchStatus = 500;
+        batcher = new RemoteUserBatcher(client, "test", Duration.ofMillis(200), 100);
+
+        List<Future<RemoteUserClient.Lookup>> futures = lookupConcurrently("alice", "bob", "carol");
+
+        List<Throwable> failures = new ArrayList<>();
+        for (Future<RemoteUserClient.Lookup> future : futures) {
+            try {
+                result(future);
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+        assertThat(failures).hasSize(3);
+        assertThat(failures.get(0)).isInstanceOf(IOException.class).hasMessageContaining("status 500");
+        assertThat(failures).allSatisfy(failure -> assertThat(failure).isSameAs(failures.get(0)));
+        assertThat(batchRequests).hasSize(1);
+        assertThat(singleRequests).isEmpty();
+    }
+
+    @Test
+    void fallsBackToPerKeyLookupsWhenBulkEndpointIsMissing() throws Exception {
+        batchStatus = 404;
+        batcher = new RemoteUserBatcher(client, "test", Duration.ofMillis(200), 100);
+
+        List<Future<RemoteUserClient.Lookup>> futures = lookupConcurrently("alice", "carol");
+
+        assertThat(result(futures.get(0)).getUser().getUsername()).isEqualTo("alice");
+        assertThat(result(futures.get(1)).getStatus()).isEqualTo(RemoteUserClient.Lookup.Status.NOT_FOUND);
+        assertThat(batchRequests).hasSize(1);
+        assertThat(singleRequests).containsExactlyInAnyOrder("username=alice", "username=carol");
+
+        // Batcher đã tắt: lookup sau đi thẳng GET từng key
+        assertThat(batcher.lookup("username", "bob").getUser().getId()).isEqualTo("2");
+        assertThat(batchRequests).hasSize(1);
+        assertThat(batcher.getBatchCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.keycloak.provider;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RemoteUserClientTest {
+
+    private static final byte[] ALICE =
+            "{\"id\":\"1\",\"username\":\"alice\",\"enabled\":true}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private final CountDownLatch received = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private RemoteUserClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/users", exchange -> {
+            received.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, ALICE.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(ALICE);
+            }
+        });
+        server.start();
+        client = new RemoteUserClient("test", "http://127.0.0.1:" + server.getAddress().getPort() + "/users",
+                "secret", false, Duration.ofSeconds(2), Duration.ofSeconds(5), 2, 16,
+                new RemoteCircuitBreaker("test", 20, 50, Duration.ofSeconds(5), 100, Duration.ofSeconds(30)),
+                new RetryBudget(0), false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void inFlightRequestCompletesAfterClose() throws Exception {
+        CompletableFuture<RemoteUserClient.Lookup> lookup = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.lookup("username", "alice", null);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Cấu hình component đổi trong khi session cũ vẫn đang chờ response
+        client.close();
+        release.countDown();
+
+        RemoteUserClient.Lookup result = lookup.get(5, TimeUnit.SECONDS);
+        assertThat(result.getStatus()).isEqualTo(RemoteUserClient.Lookup.Status.FOUND);
+        assertThat(result.getUser().getUsername()).isEqualTo("alice");
+    }
+
+    @Test
+    void rejectsNewCallsAfterClose() {
+        client.close();
+
+        assertThatThrownBy(() -> client.lookup("username", "alice", null))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("closed");
+        assertThat(received.getCount()).isEqualTo(1);
+    }
+}
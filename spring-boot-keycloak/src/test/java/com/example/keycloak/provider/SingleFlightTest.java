@@ -0,0 +1,154 @@
+package com.example.keycloak.provider;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private static final int WAITERS = 4;
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Leader chạy call bị chặn tới khi release; WAITERS callers khác chờ cùng key
+     */
+    private List<Future<String>> startFlight(SingleFlight.Call<String> outcome) throws InterruptedException {
+        List<Future<String>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> flight.execute("alice", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return outcome.call();
+        })));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < WAITERS; i++) {
+            futures.add(executor.submit(() -> flight.execute("alice", () -> "call-" + calls.incrementAndGet())));
+        }
+        awaitCoalesced(WAITERS);
+        return futures;
+    }
+
+    private void awaitCoalesced(long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flight.getCoalescedCount() < expected) {
+            assertThat(System.nanoTime()).as("waiting for coalesced callers").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable failure(Future<String> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new AssertionError("caller did not complete", e);
+        }
+        throw new AssertionError("caller did not fail");
+    }
+
+    @Test
+    void sharesOneCallAmongConcurrentCallers() throws Exception {
+        List<Future<String>> futures = startFlight(() -> "value");
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        }
+        assertThat(calls).hasValue(1);
+        assertThat(flight.getCoalescedCount()).isEqualTo(WAITERS);
+    }
+
+    @Test
+    void fansOutLeaderIoFailureToEveryWaiter() throws Exception {
+        IOException error = new IOException("remote API down");
+        List<Future<String>> futures = startFlight(() -> {
+            throw error;
+        });
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertThat(failure(future)).isSameAs(error);
+        }
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void fansOutLeaderRuntimeFailureToEveryWaiter() throws Exception {
+        IllegalStateException error = new IllegalStateException("bad response");
+        List<Future<String>> futures = startFlight(() -> {
+            throw error;
+        });
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertThat(failure(future)).isSameAs(error);
+        }
+    }
+
+    @Test
+    void releasesKeyAfterCompletion() throws Exception {
+        assertThatThrownBy(() -> flight.execute("alice", () -> {
+            throw new IOException("first");
+        })).hasMessage("first");
+
+        assertThat(flight.execute("alice", () -> "second")).isEqualTo("second");
+        assertThat(flight.execute("alice", () -> "third")).isEqualTo("third");
+        assertThat(flight.getCoalescedCount()).isZero();
+    }
+
+    @Test
+    void doesNotCoalesceDifferentKeys() throws Exception {
+        startFlight(() -> "alice");
+
+        assertThat(flight.execute("bob", () -> "bob")).isEqualTo("bob");
+        assertThat(flight.getCoalescedCount()).isEqualTo(WAITERS);
+    }
+
+    @Test
+    void waitersSeeIoFailureWhenLeaderIsInterrupted() throws Exception {
+        List<Future<String>> futures = startFlight(() -> "value");
+        futures.get(0).cancel(true);
+
+        for (Future<String> waiter : futures.subList(1, futures.size())) {
+            assertThat(failure(waiter)).isInstanceOf(InterruptedIOException.class);
+        }
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void interruptedWaiterDoesNotCancelLeader() throws Exception {
+        List<Future<String>> futures = startFlight(() -> "value");
+        futures.get(1).cancel(true);
+        release.countDown();
+
+        assertThat(futures.get(0).get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(futures.get(2).get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    }
+}
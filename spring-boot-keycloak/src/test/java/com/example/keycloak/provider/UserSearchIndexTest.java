@@ -0,0 +1,195 @@
+package com.example.keycloak.provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserSearchIndexTest {
+
+    private InMemoryRepository repository;
+    private UserSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryRepository();
+        index = new UserSearchIndex(repository);
+    }
+
+    private List<String> search(String term) {
+        return index.search(term, 0, -1);
+    }
+
+    private static CustomUser user(String id, String username, String email, String firstName, String lastName) {
+        return new CustomUser(id, username, email, null, firstName, lastName, true);
+    }
+
+    @Test
+    void intersectsPostingListsOfAllTrigrams() {
+        repository.save(user("1", "alice", null, null, null));
+        repository.save(user("2", "alicia", null, null, null));
+        repository.save(user("3", "malice", null, null, null));
+        repository.save(user("4", "bob", null, null, null));
+        index.rebuild();
+
+        assertThat(search("lic")).containsExactly("1", "2", "3");
+        assertThat(search("lice")).containsExactly("1", "3");
+        assertThat(search("alici")).containsExactly("2");
+        assertThat(search("alx")).isEmpty();
+        assertThat(index.count("ali")).isEqualTo(3);
+    }
+
+    @Test
+    void rechecksSubstringAfterIntersection() {
+        // Có đủ trigrams "abc" và "bcd" nhưng không chứa "abcd"
+        repository.save(user("1", "abcxbcd", null, null, null));
+        repository.save(user("2", "xabcdx", null, null, null));
+        index.rebuild();
+
+        assertThat(search("abcd")).containsExactly("2");
+    }
+
+    @Test
+    void searchesAllFieldsCaseInsensitivelyButNotAcrossFields() {
+        repository.save(user("1", "jdoe", "John.Doe@Example.com", "John", "Doe"));
+        repository.save(user("2", "abc", "def@x", null, null));
+        index.rebuild();
+
+        assertThat(search("EXAMPLE")).containsExactly("1");
+        assertThat(search(" joh ")).containsExactly("1");
+        assertThat(search("cde")).isEmpty();
+        assertThat(search("abcdef")).isEmpty();
+    }
+
+    @Test
+    void intersectsLongPostingLists() {
+        for (int i = 0; i < 500; i++) {
+            repository.save(user(String.valueOf(i), String.format("user%03d", i), "user" + i + "@example.com", null, null));
+        }
+        index.rebuild();
+
+        assertThat(search("user05")).containsExactly("50", "51", "52", "53", "54", "55", "56", "57", "58", "59");
+        assertThat(index.count("user")).isEqualTo(500);
+        assertThat(search("user499@")).containsExactly("499");
+    }
+
+    @Test
+    void pagesAreOrderedByUsernameThenId() {
+        List<CustomUser> users = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            users.add(user(String.format("id%03d", i), String.format("user%03d", i / 2), null, null, null));
+        }
+        Collections.shuffle(users, new Random(42));
+        users.forEach(repository::save);
+        index.rebuild();
+
+        assertThat(index.search("user", 0, 4)).containsExactly("id000", "id001", "id002", "id003");
+        assertThat(index.search("user", 101, 3)).containsExactly("id101", "id102", "id103");
+        assertThat(index.search("user", 198, 10)).containsExactly("id198", "id199");
+        assertThat(index.search("user", 200, 10)).isEmpty();
+        assertThat(index.search("user", 5, 0)).isEmpty();
+        assertThat(index.search("user", -1, 2)).containsExactly("id000", "id001");
+
+        List<String> all = search("user");
+        assertThat(all).hasSize(200).isSorted();
+        assertThat(index.search("user", 37, -1)).isEqualTo(all.subList(37, 200));
+    }
+
+    @Test
+    void refreshRebuildsAfterHardDelete() {
+        repository.save(user("1", "alice", null, null, null));
+        repository.save(user("2", "alicia", null, null, null));
+        repository.save(user("3", "malice", null, null, null));
+        index.rebuild();
+
+        repository.delete("1");
+        index.refresh();
+
+        assertThat(search("ali")).containsExactly("2", "3");
+        assertThat(index.count("ali")).isEqualTo(2);
+    }
+
+    @Test
+    void refreshReplacesChangedUsers() {
+        repository.save(user("1", "alice", null, null, null));
+        repository.save(user("2", "alicia", null, null, null));
+        index.rebuild();
+
+        repository.save(user("1", "zed", null, null, null));
+        repository.save(user("3", "calico", null, null, null));
+        index.refresh();
+
+        assertThat(search("ali")).containsExactly("2", "3");
+        assertThat(search("zed")).containsExactly("1");
+    }
+
+    @Test
+    void supportsOnlyBuiltIndexAndLongEnoughTerms() {
+        assertThat(index.supports("alice")).isFalse();
+
+        index.rebuild();
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.supports("alice")).isTrue();
+        assertThat(index.supports(" al ")).isFalse();
+        assertThat(index.supports("*")).isFalse();
+        assertThat(index.supports(null)).isFalse();
+    }
+
+    /**
+     * Repository không cần DataSource: giữ users trong map, users đổi từ lần refresh trước là "updated"
+     */
+    private static final class InMemoryRepository extends CustomUserRepository {
+
+        private final Map<String, CustomUser> users = new LinkedHashMap<>();
+        private final List<CustomUser> updated = new ArrayList<>();
+
+        private InMemoryRepository() {
+            super(null, 0);
+        }
+
+        private void save(CustomUser user) {
+            users.put(user.getId(), user);
+            updated.add(user);
+        }
+
+        @Override
+        public Stream<CustomUser> streamUsers(String search, Integer firstResult, Integer maxResults) {
+            updated.clear();
+            return new ArrayList<>(users.values()).stream();
+        }
+
+        @Override
+        public Stream<CustomUser> streamUsersUpdatedSince(Timestamp since) {
+            List<CustomUser> changed = new ArrayList<>(updated);
+            updated.clear();
+            return changed.stream();
+        }
+
+        /**
+         * DELETE thật: không để lại updated_at
+         */
+        private void delete(String id) {
+            users.remove(id);
+        }
+
+        @Override
+        public int count() {
+            return users.size();
+        }
+
+        @Override
+        public Timestamp currentTimestamp() {
+            return new Timestamp(System.currentTimeMillis());
+        }
+    }
+}